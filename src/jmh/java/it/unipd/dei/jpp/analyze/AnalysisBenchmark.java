@@ -0,0 +1,365 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.analyze;
+
+import it.unipd.dei.jpp.filter.MultipleCharsFilter;
+import it.unipd.dei.jpp.filter.ToucheTermFilter;
+import it.unipd.dei.jpp.parse.DocumentParser;
+import it.unipd.dei.jpp.parse.ParsedDocument;
+import it.unipd.dei.jpp.parse.ToucheParser;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerModel;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.opennlp.OpenNLPTokenizer;
+import org.apache.lucene.analysis.opennlp.tools.NLPSentenceDetectorOp;
+import org.apache.lucene.analysis.opennlp.tools.NLPTokenizerOp;
+import org.apache.lucene.analysis.standard.ClassicTokenizer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the analysis chains, measuring tokens per second and bytes allocated per token.
+ * <p>
+ * Each operation analyzes, in the premises field, the whole set of samples: by default the premises bundled in
+ * {@code premises.txt}, or the premises of the first documents of an args.me JSON file, given with
+ * {@code -p samples=<file>}. The chains are:
+ * <ul>
+ *     <li>{@code index}: {@link ToucheAnalyzerIndex};</li>
+ *     <li>{@code query}: {@link ToucheAnalyzerQuery};</li>
+ *     <li>{@code classic}: the {@code ClassicTokenizer} alone, the baseline of the filters;</li>
+ *     <li>{@code multipleChars}: {@code ClassicTokenizer}, {@code LowerCaseFilter} and {@link MultipleCharsFilter};</li>
+ *     <li>{@code opennlp}: {@link ToucheAnalyzerIndex} tokenizing by OpenNLP, see
+ *     {@link ToucheAnalyzerIndex#ToucheAnalyzerIndex(boolean)};</li>
+ *     <li>{@code luceneOpennlp}: Lucene's {@code OpenNLPTokenizer}, followed by {@link ToucheTermFilter}, with
+ *     models loaded once.</li>
+ * </ul>
+ * <p>
+ * The {@code tokens} secondary result is the throughput in tokens per second. The bytes allocated per token by the
+ * benchmark thread are printed at the end of each iteration; {@code -prof gc} reports the same allocations per
+ * operation as {@code gc.alloc.rate.norm}.
+ * <p>
+ * Build and run with {@code mvn -P jmh package} and {@code java -jar target/benchmarks.jar AnalysisBenchmark}.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnalysisBenchmark {
+
+    /**
+     * The bundled samples.
+     */
+    private static final String PREMISES = "premises.txt";
+
+    /**
+     * The maximum number of premises read from an args.me file.
+     */
+    private static final int MAX_SAMPLES = 1000;
+
+    /**
+     * The analysis chain to benchmark.
+     */
+    @Param({"index", "query", "classic", "multipleChars", "opennlp", "luceneOpennlp"})
+    public String chain;
+
+    /**
+     * The args.me JSON file to read the samples from, or the empty string for the bundled samples.
+     */
+    @Param({""})
+    public String samples;
+
+    /**
+     * The analyzer of the chain.
+     */
+    private Analyzer analyzer;
+
+    /**
+     * The texts analyzed by each operation.
+     */
+    private String[] texts;
+
+    /**
+     * The number of tokens produced by each operation.
+     */
+    private long tokensPerOperation;
+
+    /**
+     * The bytes allocated by the benchmark thread at the beginning of the iteration.
+     */
+    private long allocatedAtStart;
+
+    /**
+     * The tokens produced during the iteration.
+     */
+    private long tokensAtStart;
+
+    /**
+     * The total number of tokens produced so far.
+     */
+    private long tokens;
+
+    /**
+     * The number of tokens produced, reported as a throughput.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens {
+
+        /**
+         * The number of tokens produced.
+         */
+        public long tokens;
+    }
+
+    /**
+     * Loads the samples and creates the analyzer.
+     *
+     * @throws IOException if the samples or the models cannot be read.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        texts = samples.isEmpty() ? loadBundledSamples() : loadSamples(Path.of(samples));
+        analyzer = createAnalyzer(chain);
+        tokensPerOperation = analyze();
+
+        System.out.printf("%n%d samples, %d tokens per operation%n", texts.length, tokensPerOperation);
+    }
+
+    /**
+     * Closes the analyzer.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        analyzer.close();
+    }
+
+    /**
+     * Records the allocations at the beginning of an iteration.
+     */
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        allocatedAtStart = allocatedBytes();
+        tokensAtStart = tokens;
+    }
+
+    /**
+     * Prints the bytes allocated per token during an iteration.
+     */
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        final long allocated = allocatedBytes() - allocatedAtStart;
+        System.out.printf("(%.1f bytes/token) ", (double) allocated / Math.max(1, tokens - tokensAtStart));
+    }
+
+    /**
+     * Analyzes all the samples.
+     *
+     * @param counter the counter of the produced tokens.
+     * @return the number of tokens produced.
+     * @throws IOException if something goes wrong while analyzing.
+     */
+    @Benchmark
+    public long analyze(final Tokens counter) throws IOException {
+        final long n = analyze();
+        counter.tokens += n;
+        return n;
+    }
+
+    /**
+     * Analyzes all the samples, consuming the token streams.
+     *
+     * @return the number of tokens produced.
+     * @throws IOException if something goes wrong while analyzing.
+     */
+    private long analyze() throws IOException {
+        long n = 0;
+        for (String text : texts) {
+            try (TokenStream stream = analyzer.tokenStream(ParsedDocument.FIELDS.PREMISES, text)) {
+                stream.reset();
+                while (stream.incrementToken()) {
+                    n++;
+                }
+                stream.end();
+            }
+        }
+        tokens += n;
+        return n;
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread.
+     *
+     * @return the bytes allocated so far by the current thread.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Creates the analyzer of a chain.
+     *
+     * @param chain the name of the chain.
+     * @return the analyzer.
+     * @throws IOException if the OpenNLP models cannot be read.
+     */
+    private static Analyzer createAnalyzer(final String chain) throws IOException {
+        switch (chain) {
+            case "index":
+                return new ToucheAnalyzerIndex();
+
+            case "query":
+                return new ToucheAnalyzerQuery();
+
+            case "classic":
+                return new Analyzer() {
+                    @Override
+                    protected TokenStreamComponents createComponents(String fieldName) {
+                        return new TokenStreamComponents(new ClassicTokenizer());
+                    }
+                };
+
+            case "multipleChars":
+                return new Analyzer() {
+                    @Override
+                    protected TokenStreamComponents createComponents(String fieldName) {
+                        final Tokenizer source = new ClassicTokenizer();
+                        return new TokenStreamComponents(source, new MultipleCharsFilter(new LowerCaseFilter(source)));
+                    }
+                };
+
+            case "opennlp":
+                return new ToucheAnalyzerIndex(true);
+
+            case "luceneOpennlp":
+                final SentenceModel sentenceModel;
+                final TokenizerModel tokenizerModel;
+                try (InputStream sent = resource("en-sent.bin"); InputStream token = resource("en-token.bin")) {
+                    sentenceModel = new SentenceModel(sent);
+                    tokenizerModel = new TokenizerModel(token);
+                }
+                return new Analyzer() {
+                    @Override
+                    protected TokenStreamComponents createComponents(String fieldName) {
+                        final Tokenizer source;
+                        try {
+                            source = new OpenNLPTokenizer(TokenStream.DEFAULT_TOKEN_ATTRIBUTE_FACTORY,
+                                    new NLPSentenceDetectorOp(sentenceModel), new NLPTokenizerOp(tokenizerModel));
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return new TokenStreamComponents(source, new ToucheTermFilter(source, 3, 20));
+                    }
+                };
+
+            default:
+                throw new IllegalArgumentException(String.format("Unknown analysis chain %s.", chain));
+        }
+    }
+
+    /**
+     * Loads the bundled samples, skipping comments and blank lines.
+     *
+     * @return the samples.
+     * @throws IOException if the samples cannot be read.
+     */
+    private static String[] loadBundledSamples() throws IOException {
+        final List<String> texts = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(resource(PREMISES),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isBlank() && !line.startsWith("#")) {
+                    texts.add(line);
+                }
+            }
+        }
+        return texts.toArray(new String[0]);
+    }
+
+    /**
+     * Loads the premises of the first documents of an args.me JSON file.
+     *
+     * @param file the args.me JSON file.
+     * @return the samples.
+     * @throws IOException if the file cannot be read.
+     */
+    private static String[] loadSamples(final Path file) throws IOException {
+        final List<String> texts = new ArrayList<>();
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (ParsedDocument pd : DocumentParser.create(ToucheParser.class, in)) {
+                if (pd.getPremises() != null && !pd.getPremises().isBlank()) {
+                    texts.add(pd.getPremises());
+                }
+                if (texts.size() == MAX_SAMPLES) {
+                    break;
+                }
+            }
+        }
+
+        if (texts.isEmpty()) {
+            throw new IllegalArgumentException(String.format("No premises found in %s.", file));
+        }
+        return texts.toArray(new String[0]);
+    }
+
+    /**
+     * Opens a resource.
+     *
+     * @param name the name of the resource.
+     * @return the stream of the resource.
+     */
+    private static InputStream resource(final String name) {
+        return Objects.requireNonNull(AnalysisBenchmark.class.getClassLoader().getResourceAsStream(name),
+                String.format("Resource %s not found.", name));
+    }
+
+}
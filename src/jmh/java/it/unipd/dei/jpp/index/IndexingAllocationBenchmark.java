@@ -0,0 +1,346 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import it.unipd.dei.jpp.analyze.ToucheAnalyzerIndex;
+import it.unipd.dei.jpp.parse.ToucheParser;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * JMH benchmark of the sequential indexing, with and without reused documents (see
+ * {@link DirectoryIndexer#setReuseDocuments(boolean)}), measuring the time and the bytes allocated per indexing.
+ * <p>
+ * Each operation indexes, into a new index, the whole corpus: by default a corpus of {@code -p docs=<n>} arguments
+ * built from the premises bundled in {@code premises.txt}, or the args.me corpus in the directory given with
+ * {@code -p corpus=<dir>}.
+ * <p>
+ * The bytes allocated per indexed document by the benchmark thread are printed at the end of each iteration, if the JVM
+ * can measure them; {@code -prof gc} reports the allocations per operation as {@code gc.alloc.rate.norm} and the
+ * number and time of the garbage collections as {@code gc.count} and {@code gc.time}.
+ * <p>
+ * Build and run with {@code mvn -P jmh package} and
+ * {@code java -jar target/benchmarks.jar IndexingAllocationBenchmark -prof gc}.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexingAllocationBenchmark {
+
+    /**
+     * The bundled samples.
+     */
+    private static final String PREMISES = "premises.txt";
+
+    /**
+     * The size in megabytes of the RAM buffer for indexing documents.
+     */
+    private static final int RAM_BUFFER_SIZE_MB = 256;
+
+    /**
+     * Whether the indexer reuses documents.
+     */
+    @Param({"false", "true"})
+    public boolean reuse;
+
+    /**
+     * The directory of the args.me corpus to index, or the empty string for a corpus built from the bundled samples.
+     */
+    @Param({""})
+    public String corpus;
+
+    /**
+     * The number of arguments of the corpus built from the bundled samples.
+     */
+    @Param({"20000"})
+    public int docs;
+
+    /**
+     * The directory of the indexed corpus.
+     */
+    private Path docsDir;
+
+    /**
+     * The directory of the corpus built from the bundled samples, if any.
+     */
+    private Path builtCorpus;
+
+    /**
+     * The directory of the index of the current operation.
+     */
+    private Path indexDir;
+
+    /**
+     * The number of documents indexed by each operation.
+     */
+    private long docsPerOperation;
+
+    /**
+     * The number of operations in the current iteration.
+     */
+    private long operations;
+
+    /**
+     * The bytes allocated by the benchmark thread at the beginning of the iteration, or {@code -1} if they cannot be
+     * measured.
+     */
+    private long allocatedAtStart;
+
+    /**
+     * Builds the corpus, if needed, and counts its documents.
+     *
+     * @throws IOException if the corpus cannot be built or indexed.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (corpus.isEmpty()) {
+            builtCorpus = Files.createTempDirectory("jpp-corpus");
+            buildCorpus(builtCorpus.resolve("args.json"), docs);
+            docsDir = builtCorpus;
+        } else {
+            docsDir = Path.of(corpus);
+        }
+
+        indexDir = Files.createTempDirectory("jpp-index");
+        try {
+            docsPerOperation = index();
+        } finally {
+            delete(indexDir);
+        }
+
+        System.out.printf("%n%d documents per operation%n", docsPerOperation);
+    }
+
+    /**
+     * Deletes the corpus built from the bundled samples.
+     *
+     * @throws IOException if the corpus cannot be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (builtCorpus != null) {
+            delete(builtCorpus);
+        }
+    }
+
+    /**
+     * Records the allocations at the beginning of an iteration.
+     */
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        allocatedAtStart = allocatedBytes();
+        operations = 0;
+    }
+
+    /**
+     * Prints the bytes allocated per indexed document during an iteration.
+     */
+    @TearDown(Level.Iteration)
+    public void endIteration() {
+        final long allocated = allocatedBytes();
+        if (allocatedAtStart >= 0 && allocated >= 0) {
+            System.out.printf("(%.1f bytes/doc) ", (double) (allocated - allocatedAtStart)
+                    / Math.max(1, operations * docsPerOperation));
+        }
+    }
+
+    /**
+     * Creates the directory of the index of an operation.
+     *
+     * @throws IOException if the directory cannot be created.
+     */
+    @Setup(Level.Invocation)
+    public void createIndex() throws IOException {
+        indexDir = Files.createTempDirectory("jpp-index");
+    }
+
+    /**
+     * Deletes the index of an operation.
+     *
+     * @throws IOException if the index cannot be deleted.
+     */
+    @TearDown(Level.Invocation)
+    public void deleteIndex() throws IOException {
+        delete(indexDir);
+    }
+
+    /**
+     * Indexes the corpus.
+     *
+     * @return the number of indexed documents.
+     * @throws IOException if something goes wrong while indexing.
+     */
+    @Benchmark
+    public long indexCorpus() throws IOException {
+        operations++;
+        return index();
+    }
+
+    /**
+     * Indexes the corpus into a new index, without printing the progress of the indexing.
+     *
+     * @return the number of indexed documents.
+     * @throws IOException if something goes wrong while indexing.
+     */
+    private long index() throws IOException {
+        final DirectoryIndexer i = new DirectoryIndexer(new ToucheAnalyzerIndex(), new LMDirichletSimilarity(1800),
+                RAM_BUFFER_SIZE_MB, indexDir.toString(), docsDir.toString(), "json", "UTF-8", 1, ToucheParser.class);
+        i.setReuseDocuments(reuse);
+
+        final PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            i.index();
+        } finally {
+            System.setOut(out);
+        }
+
+        try (Directory dir = FSDirectory.open(indexDir); IndexReader reader = DirectoryReader.open(dir)) {
+            return reader.numDocs();
+        }
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, if the JVM can measure them.
+     *
+     * @return the bytes allocated so far by the current thread, or {@code -1} if they cannot be measured.
+     */
+    private static long allocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+            if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled()) {
+                return t.getCurrentThreadAllocatedBytes();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes an args.me JSON file of arguments whose premises are the bundled samples, repeated as needed.
+     *
+     * @param file the file to be written.
+     * @param n    the number of arguments.
+     * @throws IOException if the samples cannot be read or the file cannot be written.
+     */
+    private static void buildCorpus(final Path file, final int n) throws IOException {
+
+        final List<String> texts = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(resource(PREMISES),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isBlank() && !line.startsWith("#")) {
+                    texts.add(line);
+                }
+            }
+        }
+
+        try (OutputStream out = Files.newOutputStream(file);
+             JsonGenerator g = new JsonFactory().createGenerator(out)) {
+            g.writeStartObject();
+            g.writeArrayFieldStart("arguments");
+            for (int i = 0; i < n; i++) {
+                final String text = texts.get(i % texts.size());
+                g.writeStartObject();
+                g.writeStringField("id", "arg" + i);
+                // like in args.me, the URL is a property of the argument, while the title is in its context
+                g.writeStringField("sourceUrl", "https://example.org/debate/" + i / 10);
+                g.writeStringField("conclusion", text.substring(0, Math.min(80, text.length())));
+                g.writeArrayFieldStart("premises");
+                g.writeStartObject();
+                g.writeStringField("text", text);
+                g.writeStringField("stance", i % 2 == 0 ? "PRO" : "CON");
+                g.writeEndObject();
+                g.writeEndArray();
+                g.writeObjectFieldStart("context");
+                g.writeStringField("discussionTitle", "Debate " + i / 10);
+                g.writeEndObject();
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+            g.writeEndObject();
+        }
+    }
+
+    /**
+     * Deletes a directory and all its contents.
+     *
+     * @param dir the directory.
+     * @throws IOException if the directory cannot be visited.
+     */
+    private static void delete(final Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+
+    /**
+     * Opens a resource.
+     *
+     * @param name the name of the resource.
+     * @return the stream of the resource.
+     */
+    private static InputStream resource(final String name) {
+        return Objects.requireNonNull(IndexingAllocationBenchmark.class.getClassLoader().getResourceAsStream(name),
+                String.format("Resource %s not found.", name));
+    }
+
+}
@@ -19,6 +19,7 @@ import it.unipd.dei.jpp.analyze.*;
 import it.unipd.dei.jpp.index.DirectoryIndexer;
 import it.unipd.dei.jpp.parse.ToucheParser;
 import it.unipd.dei.jpp.search.Searcher;
+import it.unipd.dei.jpp.utils.LinguisticResources;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
@@ -66,7 +67,12 @@ public class ToucheIR {
         final int expectedDocs = 387740;
         final String charsetName = "UTF-8";
 
-        final Analyzer a = new ToucheAnalyzerIndex();
+        final int threads = Runtime.getRuntime().availableProcessors();
+
+        // tokenize by OpenNLP sentences and words instead of ClassicTokenizer
+        final boolean openNLP = false;
+
+        final Analyzer a = new ToucheAnalyzerIndex(openNLP);
 
         final Similarity sim = new LMDirichletSimilarity(1800);
         //final Similarity sim = new BM25Similarity();
@@ -85,14 +91,38 @@ public class ToucheIR {
 
         // indexing
         final DirectoryIndexer i = new DirectoryIndexer(a, sim, ramBuffer, indexPath, docsPath, extension, charsetName,
-                expectedDocs, ToucheParser.class);
+                expectedDocs, ToucheParser.class, threads);
+        // reuse the existing index if it was built from the same corpus and configuration, update it if only the
+        // corpus changed
+        i.setIncremental(true);
+        // analyze only once the values shared by many arguments, like the debate titles; worth it only with OpenNLP,
+        // since ClassicTokenizer is about as fast as recording the tokens of a value seen for the second time
+        i.setAnalysisCache(openNLP ? 100000 : 0);
+        // uncomment to index the sentiment of the premises, read by JPPReScorer instead of analyzing them at query time
+        // i.setSentiment(true);
         i.index();
 
-        Analyzer queryAnalyzer = new ToucheAnalyzerQuery();
+        Analyzer queryAnalyzer = new ToucheAnalyzerQuery(openNLP);
         // searching
         final Searcher s = new Searcher(queryAnalyzer, sim, indexPath, topics, expectedTopics, runID, runPath, maxDocsRetrieved, null, runName);
+        // expand the queries with WordNet synonyms, looked up in a dictionary compiled once from wn_s.pl with
+        // SynonymDictionary, e.g. inputDir + "wn_s.fst"; null for no expansion
+        final String synonymDictionary = null;
+        if (synonymDictionary != null) {
+            s.setSynonyms(synonymDictionary, 0.4f);
+        }
+        // search for the topics concurrently; the run is the same as with a single thread
+        s.setThreads(threads);
+        // uncomment to also search each query on its slices of segments, trading throughput for latency
+        // s.setSegmentParallelism(threads, 250000, 5);
+        // uncomment to re-rank the first 30 documents by the sentiment of their premises, read from the index if it was
+        // indexed; pass a SentimentScorer instead of null to compute it at query time, cached across the topics
+        // s.setReRanking(30, null);
         s.search();
 
+        // stop lists, synonyms and models are loaded once and shared by all the analyzers and parsers
+        System.out.printf("%n#### Linguistic resources ####%n%s", LinguisticResources.report());
+
     }
 
 }
@@ -0,0 +1,203 @@
+package it.unipd.dei.jpp.analyze;
+
+import opennlp.tools.util.Span;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.opennlp.OpenNLPTokenizer;
+import org.apache.lucene.analysis.opennlp.tools.NLPSentenceDetectorOp;
+import org.apache.lucene.analysis.opennlp.tools.NLPTokenizerOp;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.FlagsAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+
+/**
+ * Tokenizer splitting the text into sentences and then into words with OpenNLP, producing the same tokens as Lucene's
+ * {@link OpenNLPTokenizer}, including the {@link OpenNLPTokenizer#EOS_FLAG_BIT} flag on the last token of each
+ * sentence.
+ * <p>
+ * Unlike {@link OpenNLPTokenizer}, which detects sentences in each window of 1024 chars, the whole document is read
+ * and its sentences are detected in a single batch, so that sentences are never split by a window boundary. The read
+ * buffer is kept and reused for the following documents.
+ * <p>
+ * OpenNLP ops are not thread-safe, so each tokenizer needs its own ops; they are lightweight and can be created from
+ * models shared by all the threads (see {@link it.unipd.dei.jpp.utils.LinguisticResources}). Since analyzers create
+ * a tokenizer per thread, this is what happens with {@link ToucheAnalyzerIndex#ToucheAnalyzerIndex(boolean)} and
+ * {@link ToucheAnalyzerQuery#ToucheAnalyzerQuery(boolean)}.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class OpenNLPDocumentTokenizer extends Tokenizer {
+
+    /**
+     * The initial size of the read buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /**
+     * The sentence detector.
+     */
+    private final NLPSentenceDetectorOp sentenceOp;
+
+    /**
+     * The word tokenizer.
+     */
+    private final NLPTokenizerOp tokenizerOp;
+
+    /**
+     * The term attribute.
+     */
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+    /**
+     * The offset attribute.
+     */
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+    /**
+     * The flags attribute.
+     */
+    private final FlagsAttribute flagsAtt = addAttribute(FlagsAttribute.class);
+
+    /**
+     * The characters of the document.
+     */
+    private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+
+    /**
+     * The number of characters of the document.
+     */
+    private int length;
+
+    /**
+     * The text of the document, or {@code null} if not read yet.
+     */
+    private String text;
+
+    /**
+     * The sentences of the document.
+     */
+    private Span[] sentences;
+
+    /**
+     * The index of the next sentence.
+     */
+    private int sentence;
+
+    /**
+     * The start of the current sentence within the document.
+     */
+    private int sentenceStart;
+
+    /**
+     * The words of the current sentence, relative to its start, or {@code null} before the first sentence.
+     */
+    private Span[] words;
+
+    /**
+     * The index of the next word of the current sentence.
+     */
+    private int word;
+
+    /**
+     * Creates a new tokenizer.
+     *
+     * @param sentenceOp the sentence detector, used by this tokenizer only.
+     * @param tokenizerOp the word tokenizer, used by this tokenizer only.
+     * @throws NullPointerException if {@code sentenceOp} or {@code tokenizerOp} are {@code null}.
+     */
+    public OpenNLPDocumentTokenizer(final NLPSentenceDetectorOp sentenceOp, final NLPTokenizerOp tokenizerOp) {
+
+        if (sentenceOp == null) {
+            throw new NullPointerException("Sentence detector cannot be null.");
+        }
+
+        if (tokenizerOp == null) {
+            throw new NullPointerException("Word tokenizer cannot be null.");
+        }
+
+        this.sentenceOp = sentenceOp;
+        this.tokenizerOp = tokenizerOp;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        clearAttributes();
+
+        if (text == null) {
+            read();
+        }
+
+        // move to the next sentence with at least one word
+        while (words == null || word == words.length) {
+            if (sentence == sentences.length) {
+                return false;
+            }
+
+            final Span s = sentences[sentence++];
+            sentenceStart = s.getStart();
+            words = tokenizerOp.getTerms(text.substring(s.getStart(), s.getEnd()));
+            word = 0;
+        }
+
+        final Span w = words[word];
+        termAtt.copyBuffer(buffer, sentenceStart + w.getStart(), w.length());
+        offsetAtt.setOffset(correctOffset(sentenceStart + w.getStart()), correctOffset(sentenceStart + w.getEnd()));
+
+        // mark the last token of the sentence, like OpenNLPTokenizer
+        if (word == words.length - 1) {
+            flagsAtt.setFlags(flagsAtt.getFlags() | OpenNLPTokenizer.EOS_FLAG_BIT);
+        }
+
+        word++;
+        return true;
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        final int finalOffset = correctOffset(length);
+        offsetAtt.setOffset(finalOffset, finalOffset);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        length = 0;
+        text = null;
+        sentences = null;
+        sentence = 0;
+        words = null;
+        word = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        text = null;
+        sentences = null;
+        words = null;
+    }
+
+    /**
+     * Reads the whole document and detects its sentences.
+     *
+     * @throws IOException if the document cannot be read.
+     */
+    private void read() throws IOException {
+        int n;
+        while ((n = input.read(buffer, length, buffer.length - length)) != -1) {
+            length += n;
+            if (length == buffer.length) {
+                buffer = ArrayUtil.grow(buffer, length + 1);
+            }
+        }
+
+        text = new String(buffer, 0, length);
+        sentences = sentenceOp.splitSentences(text);
+    }
+
+}
@@ -1,11 +1,11 @@
 package it.unipd.dei.jpp.analyze;
 
-import it.unipd.dei.jpp.filter.MultipleCharsFilter;
+import it.unipd.dei.jpp.filter.ToucheTermFilter;
 import org.apache.lucene.analysis.*;
-import org.apache.lucene.analysis.en.*;
-import org.apache.lucene.analysis.miscellaneous.LengthFilter;
 import org.apache.lucene.analysis.standard.ClassicTokenizer;
 
+import java.io.IOException;
+
 import static it.unipd.dei.jpp.utils.AnalyzerUtil.*;
 
 /**
@@ -16,33 +16,49 @@ import static it.unipd.dei.jpp.utils.AnalyzerUtil.*;
 public class ToucheAnalyzerQuery extends Analyzer {
 
     /**
-     * Creates a new instance of the analyzer for process queries.
+     * Whether the text is tokenized by OpenNLP, instead of by {@code ClassicTokenizer}.
+     */
+    private final boolean openNLP;
+
+    /**
+     * Creates a new instance of the analyzer for process queries, tokenizing the text by {@code ClassicTokenizer}.
      */
     public ToucheAnalyzerQuery() {
+        this(false);
+    }
+
+    /**
+     * Creates a new instance of the analyzer for process queries.
+     * <p>
+     * With OpenNLP, the text is split into sentences and words by {@link OpenNLPDocumentTokenizer}; the models are
+     * loaded once and shared by all the instances and threads, while each thread gets its own lightweight ops.
+     *
+     * @param openNLP {@code true} to tokenize the text by OpenNLP, {@code false} by {@code ClassicTokenizer}.
+     */
+    public ToucheAnalyzerQuery(final boolean openNLP) {
         super();
+        this.openNLP = openNLP;
     }
 
     @Override
     protected TokenStreamComponents createComponents(String fieldName) {
-        Tokenizer source;
-
-        // The OpenNLPTokenizer was implemented initially, but we noticed that ClassicTokenizer performs better.
-        /*try {
-            source = new OpenNLPTokenizer(TokenStream.DEFAULT_TOKEN_ATTRIBUTE_FACTORY,
-                    loadSentenceModel("en-sent.bin"), loadOpenNLPTokenizer("en-token.bin"));
-        } catch (IOException e) {
-            throw new IllegalStateException(e);
-        }*/
-
-        source = new ClassicTokenizer();
-
-        TokenStream tokens = new LowerCaseFilter(source);
-
-        tokens = new MultipleCharsFilter(tokens);
+        final Tokenizer source;
 
-        tokens = new EnglishPossessiveFilter(tokens);
+        // The OpenNLP tokenizer was implemented initially, but we noticed that ClassicTokenizer performs better.
+        if (openNLP) {
+            try {
+                source = new OpenNLPDocumentTokenizer(loadSentenceModel("en-sent.bin"),
+                        loadOpenNLPTokenizer("en-token.bin"));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        } else {
+            source = new ClassicTokenizer();
+        }
 
-        tokens = new LengthFilter(tokens, 3, 20);
+        // lowercasing, repeated chars, possessives and length in a single pass; same output as the chain
+        // LowerCaseFilter, MultipleCharsFilter, EnglishPossessiveFilter and LengthFilter(3, 20)
+        TokenStream tokens = new ToucheTermFilter(source, 3, 20);
 
         tokens = new StopFilter(tokens, loadStopList("ebsco.txt"));
 
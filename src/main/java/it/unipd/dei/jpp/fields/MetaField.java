@@ -20,13 +20,12 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.index.IndexOptions;
 
-import java.io.Reader;
-
 /**
  * Represents a {@link Field} for containing the id and other meta data of a document.
  * <p>
- * It is a tokenized field, stored, keeping only document ids (see {@link
- * IndexOptions#DOCS}.
+ * It is an untokenized field, stored, keeping only document ids (see {@link
+ * IndexOptions#DOCS}. Its value is indexed as a single term, without going through the analyzer, so that it can be
+ * matched exactly.
  *
  * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
  * @version 1.00
@@ -41,20 +40,10 @@ public class MetaField extends Field {
 
     static {
         META_TYPE.setIndexOptions(IndexOptions.DOCS);
-        META_TYPE.setTokenized(true);
+        META_TYPE.setTokenized(false);
         META_TYPE.setStored(true);
     }
 
-    /**
-     * Create a new field of type meta for the document.
-     *
-     * @param field the field where to store the value.
-     * @param value the contents to be stored in the field of the document.
-     */
-    public MetaField(final String field, final Reader value) {
-        super(field, value, META_TYPE);
-    }
-
     /**
      * Create a new field of type meta for the document.
      *
@@ -13,7 +13,7 @@ import java.io.IOException;
  * @version 1.00
  * @since 1.00
  */
-public class MultipleCharsFilter extends TokenFilter {
+public final class MultipleCharsFilter extends TokenFilter {
     private final CharTermAttribute charTermAttr;
 
     /**
@@ -32,28 +32,27 @@ public class MultipleCharsFilter extends TokenFilter {
             return false;
         }
 
-        int length = charTermAttr.length();
-        char[] buffer = charTermAttr.buffer();
-        char[] newBuffer = new char[length];
+        final int length = charTermAttr.length();
+        final char[] buffer = charTermAttr.buffer();
 
-        int j = length;
+        // compact the term in place, comparing each char with the previous two original ones
         if (length > 2) {
-            newBuffer[0] = buffer[0];
-            newBuffer[1] = buffer[1];
-            j = 2;
+            char prev2 = buffer[0];
+            char prev1 = buffer[1];
+            int j = 2;
 
             for (int i = 2; i < length; i++) {
-                if (!(buffer[i - 2] == buffer[i - 1] && buffer[i - 1] == buffer[i])) {
-                    newBuffer[j] = buffer[i];
-                    j++;
+                final char c = buffer[i];
+                if (!(prev2 == prev1 && prev1 == c)) {
+                    buffer[j++] = c;
                 }
+                prev2 = prev1;
+                prev1 = c;
             }
-        } else {
-            newBuffer = buffer.clone();
+
+            charTermAttr.setLength(j);
         }
 
-        charTermAttr.setEmpty();
-        charTermAttr.copyBuffer(newBuffer, 0, j);
         return true;
     }
 }
\ No newline at end of file
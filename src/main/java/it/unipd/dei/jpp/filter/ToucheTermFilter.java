@@ -0,0 +1,99 @@
+package it.unipd.dei.jpp.filter;
+
+import org.apache.lucene.analysis.CharacterUtils;
+import org.apache.lucene.analysis.FilteringTokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+/**
+ * Token Filter normalizing terms in a single pass over the term buffer, in place and without allocating.
+ * <p>
+ * It produces exactly the same tokens as the chain {@code LowerCaseFilter}, {@link MultipleCharsFilter}, {@code
+ * EnglishPossessiveFilter} and {@code LengthFilter}, in this order: terms are lowercased, runs of three or more equal
+ * characters are collapsed to two, a trailing possessive {@code 's} is removed and terms whose length is not within
+ * the given bounds are dropped, leaving a position gap like {@code LengthFilter}.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class ToucheTermFilter extends FilteringTokenFilter {
+
+    /**
+     * The term attribute
+     */
+    private final CharTermAttribute charTermAttr;
+
+    /**
+     * The minimum length of a term
+     */
+    private final int min;
+
+    /**
+     * The maximum length of a term
+     */
+    private final int max;
+
+    /**
+     * Create new instance of the ToucheTermFilter
+     *
+     * @param ts  the token stream
+     * @param min the minimum length of a term
+     * @param max the maximum length of a term
+     * @throws IllegalArgumentException if {@code min} is negative or greater than {@code max}.
+     */
+    public ToucheTermFilter(TokenStream ts, int min, int max) {
+        super(ts);
+
+        if (min < 0) {
+            throw new IllegalArgumentException("Minimum length cannot be negative.");
+        }
+
+        if (min > max) {
+            throw new IllegalArgumentException("Minimum length cannot be greater than maximum length.");
+        }
+
+        this.min = min;
+        this.max = max;
+        this.charTermAttr = addAttribute(CharTermAttribute.class);
+    }
+
+    @Override
+    protected boolean accept() {
+        final char[] buffer = charTermAttr.buffer();
+        final int length = charTermAttr.length();
+
+        // lowercase code points, like LowerCaseFilter
+        CharacterUtils.toLowerCase(buffer, 0, length);
+
+        // drop every char equal to the previous two ones, comparing the original chars like MultipleCharsFilter
+        int j = length;
+        if (length > 2) {
+            char prev2 = buffer[0];
+            char prev1 = buffer[1];
+            j = 2;
+
+            for (int i = 2; i < length; i++) {
+                final char c = buffer[i];
+                if (!(prev2 == prev1 && prev1 == c)) {
+                    buffer[j++] = c;
+                }
+                prev2 = prev1;
+                prev1 = c;
+            }
+        }
+
+        // strip the trailing possessive, like EnglishPossessiveFilter
+        if (j >= 2 && (buffer[j - 1] == 's' || buffer[j - 1] == 'S')) {
+            final char apostrophe = buffer[j - 2];
+            if (apostrophe == '\'' || apostrophe == '\u2019' || apostrophe == '\uFF07') {
+                j -= 2;
+            }
+        }
+
+        charTermAttr.setLength(j);
+
+        // keep the term only if its length is within bounds, like LengthFilter
+        return j >= min && j <= max;
+    }
+}
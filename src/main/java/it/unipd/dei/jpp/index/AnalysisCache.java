@@ -0,0 +1,455 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, thread-safe, cache of the tokens produced by analyzing the values of a field, used to analyze only once
+ * the values shared by many documents (see {@link it.unipd.dei.jpp.parse.ParsedDocument#REPEATED_FIELDS}).
+ * <p>
+ * The first time a value is seen it is only remembered, and analyzed as usual, so that the many values which never
+ * repeat cost no more than without the cache. The second time it is analyzed and its tokens, i.e. terms, position
+ * increments and offsets, are recorded; from then on they are replayed by a {@link Replay} stream, given to the field
+ * in place of the value, so that the index is exactly the same as if the value had been analyzed again. Values longer
+ * than a given length are never cached, since they are unlikely to repeat.
+ * <p>
+ * The cache is split into segments, each one locked on its own and evicting its least recently used values once
+ * full, so that concurrent indexing threads rarely contend.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+final class AnalysisCache {
+
+    /**
+     * The number of bits of the hash selecting the segment.
+     */
+    private static final int SEGMENT_BITS = 4;
+
+    /**
+     * The analyzer producing the tokens.
+     */
+    private final Analyzer analyzer;
+
+    /**
+     * The name of the field whose values are analyzed.
+     */
+    private final String field;
+
+    /**
+     * The maximum length of a cached value.
+     */
+    private final int maxValueLength;
+
+    /**
+     * The segments of the cache.
+     */
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    /**
+     * The number of values found in the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of values analyzed and added to the cache.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The number of values seen for the first time.
+     */
+    private final LongAdder firstSeen = new LongAdder();
+
+    /**
+     * The number of values too long to be cached.
+     */
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * Creates a new, empty, cache.
+     *
+     * @param analyzer       the analyzer producing the tokens.
+     * @param field          the name of the field whose values are analyzed.
+     * @param maxEntries     the maximum number of cached values.
+     * @param maxValueLength the maximum length of a cached value.
+     * @throws NullPointerException     if {@code analyzer} or {@code field} are {@code null}.
+     * @throws IllegalArgumentException if {@code maxEntries} or {@code maxValueLength} are less than or equal to zero.
+     */
+    AnalysisCache(final Analyzer analyzer, final String field, final int maxEntries, final int maxValueLength) {
+
+        if (analyzer == null) {
+            throw new NullPointerException("Analyzer cannot be null.");
+        }
+
+        if (field == null) {
+            throw new NullPointerException("Field cannot be null.");
+        }
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of cached values must be greater than zero.");
+        }
+
+        if (maxValueLength <= 0) {
+            throw new IllegalArgumentException("The maximum length of a cached value must be greater than zero.");
+        }
+
+        this.analyzer = analyzer;
+        this.field = field;
+        this.maxValueLength = maxValueLength;
+
+        final int perSegment = Math.max(1, maxEntries / segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Returns a stream replaying the tokens of a value, analyzing the value only if it is not cached. Safe to be called
+     * concurrently, as long as each thread uses its own streams.
+     *
+     * @param value  the value.
+     * @param replay the stream to replay the tokens with; it must not be in use by another field.
+     * @return the given stream, ready to replay the tokens of the value, or {@code null} if the value is seen for the
+     * first time, or is too long to be cached, and has to be analyzed as usual.
+     * @throws UncheckedIOException if the value cannot be analyzed.
+     */
+    TokenStream tokenStream(final String value, final Replay replay) {
+
+        if (value.length() > maxValueLength) {
+            skipped.increment();
+            return null;
+        }
+
+        final int h = value.hashCode();
+        final Segment segment = segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+
+        Tokens tokens = segment.lookup(value);
+        if (tokens == null) {
+            segment.store(value, Tokens.SEEN_ONCE);
+            firstSeen.increment();
+            return null;
+        } else if (tokens != Tokens.SEEN_ONCE) {
+            hits.increment();
+        } else {
+            // concurrent misses of the same value analyze it more than once, with the same result
+            tokens = analyze(value);
+            segment.store(value, tokens);
+            misses.increment();
+        }
+
+        replay.setTokens(tokens);
+        return replay;
+    }
+
+    /**
+     * Returns a report of the usage of the cache: hits, misses, values seen once or too long, cached values and their
+     * memory.
+     *
+     * @return the report.
+     */
+    String report() {
+        final long h = hits.sum();
+        final long m = misses.sum() + firstSeen.sum() + skipped.sum();
+
+        long entries = 0;
+        long bytes = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                entries += s.size();
+                bytes += s.bytes;
+            }
+        }
+
+        return String.format("%d hit(s), %d miss(es) of which %d first seen and %d too long (%.1f%% hit rate); "
+                + "%d value(s) remembered in %d KB", h, m, firstSeen.sum(), skipped.sum(), 100.0 * h / Math.max(1, h + m),
+                entries, bytes / 1024);
+    }
+
+    /**
+     * Analyzes a value, recording its tokens.
+     *
+     * @param value the value.
+     * @return the tokens of the value.
+     * @throws UncheckedIOException if the value cannot be analyzed.
+     */
+    private Tokens analyze(final String value) {
+
+        final Tokens tokens = new Tokens();
+
+        try (TokenStream stream = analyzer.tokenStream(field, value)) {
+            final CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            final PositionIncrementAttribute posInc = stream.addAttribute(PositionIncrementAttribute.class);
+            final OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(term, posInc.getPositionIncrement(), offset.startOffset(), offset.endOffset());
+            }
+            stream.end();
+
+            tokens.finalPositionIncrement = posInc.getPositionIncrement();
+            tokens.finalOffset = offset.endOffset();
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Unable to analyze %s: %s.", value, e.getMessage()), e);
+        }
+
+        return tokens.trim();
+    }
+
+    /**
+     * The tokens of a value, immutable once recorded.
+     */
+    private static final class Tokens {
+
+        /**
+         * The placeholder of the tokens of a value seen only once, and not analyzed yet.
+         */
+        private static final Tokens SEEN_ONCE = new Tokens().trim();
+
+        /**
+         * The characters of all the terms, one after the other.
+         */
+        private char[] chars = new char[64];
+
+        /**
+         * The end of each term within {@link #chars}.
+         */
+        private int[] ends = new int[8];
+
+        /**
+         * The position increment of each token.
+         */
+        private int[] posIncs = new int[8];
+
+        /**
+         * The start offset of each token.
+         */
+        private int[] startOffsets = new int[8];
+
+        /**
+         * The end offset of each token.
+         */
+        private int[] endOffsets = new int[8];
+
+        /**
+         * The number of tokens.
+         */
+        private int size;
+
+        /**
+         * The position increment after the last token.
+         */
+        private int finalPositionIncrement;
+
+        /**
+         * The final offset.
+         */
+        private int finalOffset;
+
+        /**
+         * Records a token.
+         *
+         * @param term        the term.
+         * @param posInc      the position increment.
+         * @param startOffset the start offset.
+         * @param endOffset   the end offset.
+         */
+        private void add(final CharTermAttribute term, final int posInc, final int startOffset, final int endOffset) {
+
+            final int start = size == 0 ? 0 : ends[size - 1];
+            chars = ArrayUtil.grow(chars, start + term.length());
+            System.arraycopy(term.buffer(), 0, chars, start, term.length());
+
+            ends = ArrayUtil.grow(ends, size + 1);
+            posIncs = ArrayUtil.grow(posIncs, size + 1);
+            startOffsets = ArrayUtil.grow(startOffsets, size + 1);
+            endOffsets = ArrayUtil.grow(endOffsets, size + 1);
+
+            ends[size] = start + term.length();
+            posIncs[size] = posInc;
+            startOffsets[size] = startOffset;
+            endOffsets[size] = endOffset;
+            size++;
+        }
+
+        /**
+         * Shrinks the arrays to the recorded tokens.
+         *
+         * @return these tokens.
+         */
+        private Tokens trim() {
+            chars = ArrayUtil.copyOfSubArray(chars, 0, size == 0 ? 0 : ends[size - 1]);
+            ends = ArrayUtil.copyOfSubArray(ends, 0, size);
+            posIncs = ArrayUtil.copyOfSubArray(posIncs, 0, size);
+            startOffsets = ArrayUtil.copyOfSubArray(startOffsets, 0, size);
+            endOffsets = ArrayUtil.copyOfSubArray(endOffsets, 0, size);
+            return this;
+        }
+
+        /**
+         * Returns the approximate number of bytes taken by the tokens.
+         *
+         * @return the approximate number of bytes taken by the tokens.
+         */
+        private long bytes() {
+            return (long) Character.BYTES * chars.length + 4L * Integer.BYTES * size;
+        }
+    }
+
+    /**
+     * A stream replaying the recorded tokens of a value. It can be reused for another value once consumed.
+     */
+    static final class Replay extends TokenStream {
+
+        /**
+         * The term attribute.
+         */
+        private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+
+        /**
+         * The position increment attribute.
+         */
+        private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+
+        /**
+         * The offset attribute.
+         */
+        private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+
+        /**
+         * The tokens to replay.
+         */
+        private Tokens tokens;
+
+        /**
+         * The index of the next token.
+         */
+        private int next;
+
+        /**
+         * Sets the tokens to replay.
+         *
+         * @param tokens the tokens to replay.
+         */
+        private void setTokens(final Tokens tokens) {
+            this.tokens = tokens;
+            this.next = 0;
+        }
+
+        @Override
+        public boolean incrementToken() {
+
+            if (next == tokens.size) {
+                return false;
+            }
+
+            clearAttributes();
+
+            final int start = next == 0 ? 0 : tokens.ends[next - 1];
+            termAtt.copyBuffer(tokens.chars, start, tokens.ends[next] - start);
+            posIncAtt.setPositionIncrement(tokens.posIncs[next]);
+            offsetAtt.setOffset(tokens.startOffsets[next], tokens.endOffsets[next]);
+
+            next++;
+            return true;
+        }
+
+        @Override
+        public void end() throws IOException {
+            super.end();
+            posIncAtt.setPositionIncrement(tokens.finalPositionIncrement);
+            offsetAtt.setOffset(tokens.finalOffset, tokens.finalOffset);
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            next = 0;
+        }
+    }
+
+    /**
+     * A segment of the cache, guarded by its own lock, evicting its least recently used values once full.
+     */
+    private static final class Segment extends LinkedHashMap<String, Tokens> {
+
+        /**
+         * The maximum number of values of the segment.
+         */
+        private final int maxEntries;
+
+        /**
+         * The approximate number of bytes taken by the cached tokens.
+         */
+        private long bytes;
+
+        /**
+         * Creates a new segment.
+         *
+         * @param maxEntries the maximum number of values of the segment.
+         */
+        private Segment(final int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        /**
+         * Returns the tokens of a value, if cached.
+         *
+         * @param value the value.
+         * @return the tokens of the value, or {@code null} if not cached.
+         */
+        private synchronized Tokens lookup(final String value) {
+            return get(value);
+        }
+
+        /**
+         * Caches the tokens of a value.
+         *
+         * @param value  the value.
+         * @param tokens the tokens of the value.
+         */
+        private synchronized void store(final String value, final Tokens tokens) {
+            final Tokens old = put(value, tokens);
+            bytes += tokens.bytes() + (old == null ? 2L * value.length() : -old.bytes());
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Tokens> eldest) {
+            if (size() > maxEntries) {
+                bytes -= eldest.getValue().bytes() + 2L * eldest.getKey().length();
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -20,23 +20,41 @@ import it.unipd.dei.jpp.fields.BodyField;
 import it.unipd.dei.jpp.fields.BodyMetaField;
 import it.unipd.dei.jpp.fields.MetaField;
 import it.unipd.dei.jpp.parse.DocumentParser;
+import it.unipd.dei.jpp.parse.JsonArraySplitter;
 import it.unipd.dei.jpp.parse.ParsedDocument;
+import it.unipd.dei.jpp.utils.AnalyzerUtil;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Indexes documents processing a whole directory tree.
+ * <p>
+ * Besides the files with the given extension, the gzip compressed ones (e.g. {@code args.json.gz}) and the entries with
+ * the given extension of zip archives are indexed too, decompressing them on the fly, so that the corpus does not need
+ * to be extracted.
  *
  * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
  * @version 1.00
@@ -55,9 +73,70 @@ public class DirectoryIndexer {
     private static final int MAX_DOCUMENTS = -1;
 
     /**
-     * The index writer.
+     * The fields of the parsed documents which are indexed; parsers skip all the other ones
      */
-    private final IndexWriter writer;
+    private static final Set<String> INDEXED_FIELDS;
+
+    static {
+        final Set<String> fields = new HashSet<>(ParsedDocument.BODY_FIELDS);
+        fields.add(ParsedDocument.FIELDS.ID);
+        fields.add(ParsedDocument.FIELDS.PREMISES);
+        fields.add(ParsedDocument.FIELDS.CONCLUSION);
+        fields.add(ParsedDocument.FIELDS.STANCE);
+        INDEXED_FIELDS = Collections.unmodifiableSet(fields);
+    }
+
+    /**
+     * The version of the schema of the indexed documents, to be increased whenever the fields of the documents change
+     * so that existing indexes are rebuilt
+     */
+    private static final int SCHEMA_VERSION = 4;
+
+    /**
+     * The minimum size of the chunks in which files are split when indexing in parallel
+     */
+    private static final long PARALLEL_CHUNK_SIZE = 8 * MEGABYTE;
+
+    /**
+     * The number of chunks per thread which can be split and parsed ahead of their deduplication, and indexed ahead of
+     * their addition to the index
+     */
+    private static final int PARALLEL_CHUNKS_PER_THREAD = 2;
+
+    /**
+     * The number of batches of parsed documents which can be queued for each chunk being indexed in parallel
+     */
+    private static final int PARALLEL_BATCHES_PER_CHUNK = 4;
+
+    /**
+     * The capacity of the queues between the stages of the ingestion pipeline
+     */
+    private static final int PIPELINE_QUEUE_CAPACITY = 1024;
+
+    /**
+     * The maximum length of a value whose analysis is cached.
+     */
+    private static final int ANALYSIS_CACHE_MAX_VALUE_LENGTH = 512;
+
+    /**
+     * The configuration of the index writer.
+     */
+    private final IndexWriterConfig iwc;
+
+    /**
+     * The directory where to store the index.
+     */
+    private final Path indexDir;
+
+    /**
+     * The name of the class of the {@code Analyzer} used for indexing.
+     */
+    private final String analyzerName;
+
+    /**
+     * The index writer, opened by {@link #index()}.
+     */
+    private IndexWriter writer;
 
     /**
      * The class of the {@code DocumentParser} to be used.
@@ -84,6 +163,11 @@ public class DirectoryIndexer {
      */
     private final long expectedDocs;
 
+    /**
+     * The number of threads used to parse files and to index their documents.
+     */
+    private final int threads;
+
     /**
      * The start instant of the indexing.
      */
@@ -92,17 +176,83 @@ public class DirectoryIndexer {
     /**
      * The total number of indexed files.
      */
-    private long filesCount;
+    private final AtomicLong filesCount;
 
     /**
      * The total number of indexed documents.
      */
-    private long docsCount;
+    private final AtomicLong docsCount;
 
     /**
      * The total number of indexed bytes
      */
-    private long bytesCount;
+    private final AtomicLong bytesCount;
+
+    /**
+     * The parsed document identifiers seen so far.
+     */
+    private final IdDeduplicator parsedIDS;
+
+    /**
+     * The ingestion pipeline, if documents have to be indexed through separate stages.
+     */
+    private IngestionPipeline pipeline;
+
+    /**
+     * Whether only the sources changed since the last indexing have to be indexed.
+     */
+    private boolean incremental = false;
+
+    /**
+     * Whether documents replace the ones with the same identifier already in the index.
+     */
+    private boolean upsert = false;
+
+    /**
+     * The copies of the documents in the index before the update, if documents are upserted.
+     */
+    private IndexedCopies copies;
+
+    /**
+     * The rank of each source in indexing order, by name.
+     */
+    private final Map<String, Integer> sourceRanks = new HashMap<>();
+
+    /**
+     * The name of each source, by rank in indexing order.
+     */
+    private final List<String> sourceNames = new ArrayList<>();
+
+    /**
+     * The manifest of the sources being indexed, if indexing incrementally, which records the copies of the duplicate
+     * documents held by each source.
+     */
+    private IndexManifest manifest;
+
+    /**
+     * Whether each thread reuses the same Lucene document, fields and, when indexing sequentially, parsed document.
+     */
+    private boolean reuseDocuments = false;
+
+    /**
+     * The fields reused by each thread, if documents are reused.
+     */
+    private final ThreadLocal<DocumentFields> reusableFields = ThreadLocal.withInitial(DocumentFields::new);
+
+    /**
+     * Whether files are memory-mapped and parsed as bytes instead of being read through a {@code Reader}.
+     */
+    private boolean memoryMapped = false;
+
+    /**
+     * The cache of the analysis of the repeated body values, or {@code null} if they are analyzed each time.
+     */
+    private AnalysisCache analysisCache = null;
+
+    /**
+     * Whether the sentiment of the premises is computed and indexed as a column.
+     */
+    private boolean sentiment = false;
 
     /**
      * Creates a new indexer.
@@ -123,6 +273,35 @@ public class DirectoryIndexer {
                             final String indexPath, final String docsPath, final String extension,
                             final String charsetName, final long expectedDocs,
                             final Class<? extends DocumentParser> dpCls) {
+        this(analyzer, similarity, ramBufferSizeMB, indexPath, docsPath, extension, charsetName, expectedDocs, dpCls,
+                1);
+    }
+
+    /**
+     * Creates a new indexer which parses files and indexes their documents using the given number of threads.
+     * <p>
+     * With more than one thread files are split into chunks which are parsed and indexed concurrently, but their
+     * documents are deduplicated in order by a single thread and the indexed chunks are added to the index in order,
+     * so that the index is the same as the one built on a single thread. With a single thread files are processed one
+     * after the other.
+     *
+     * @param analyzer        the {@code Analyzer} to be used.
+     * @param similarity      the {@code Similarity} to be used.
+     * @param ramBufferSizeMB the size in megabytes of the RAM buffer for indexing documents.
+     * @param indexPath       the directory where to store the index.
+     * @param docsPath        the directory from which documents have to be read.
+     * @param extension       the extension of the files to be indexed.
+     * @param charsetName     the name of the charset used for encoding documents.
+     * @param expectedDocs    the total number of documents expected to be indexed
+     * @param dpCls           the class of the {@code DocumentParser} to be used.
+     * @param threads         the number of threads used to parse files and to index their documents.
+     * @throws NullPointerException     if any of the parameters is {@code null}.
+     * @throws IllegalArgumentException if any of the parameters assumes invalid values.
+     */
+    public DirectoryIndexer(final Analyzer analyzer, final Similarity similarity, final int ramBufferSizeMB,
+                            final String indexPath, final String docsPath, final String extension,
+                            final String charsetName, final long expectedDocs,
+                            final Class<? extends DocumentParser> dpCls, final int threads) {
 
         if (dpCls == null) {
             throw new NullPointerException("Document parser class cannot be null.");
@@ -146,10 +325,12 @@ public class DirectoryIndexer {
          * SETUP SIMILARITY AND CONFIGS
          */
 
-        final IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+        analyzerName = analyzer.getClass().getName();
+
+        // the analyzer is used only for text fields; keyword fields, like the identifier, are indexed as they are
+        iwc = new IndexWriterConfig(AnalyzerUtil.perFieldAnalyzer(analyzer));
         iwc.setSimilarity(similarity);
         iwc.setRAMBufferSizeMB(ramBufferSizeMB);
-        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
         iwc.setCommitOnClose(true);
 
         if (indexPath == null) {
@@ -160,7 +341,7 @@ public class DirectoryIndexer {
             throw new IllegalArgumentException("Index path cannot be empty.");
         }
 
-        final Path indexDir = Paths.get(indexPath);
+        indexDir = Paths.get(indexPath);
 
         // if the directory does not already exist, create it
         if (Files.notExists(indexDir)) {
@@ -233,25 +414,144 @@ public class DirectoryIndexer {
         }
         this.expectedDocs = expectedDocs;
 
-        this.docsCount = 0;
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of indexing threads cannot be less than or equal to zero.");
+        }
+        this.threads = threads;
 
-        this.bytesCount = 0;
+        this.docsCount = new AtomicLong();
 
-        this.filesCount = 0;
+        this.bytesCount = new AtomicLong();
 
-        try {
-            writer = new IndexWriter(FSDirectory.open(indexDir), iwc);
-        } catch (IOException e) {
-            throw new IllegalArgumentException(String.format("Unable to create the index writer in directory %s: %s.",
-                    indexDir.toAbsolutePath(), e.getMessage()), e);
-        }
+        this.filesCount = new AtomicLong();
+
+        this.parsedIDS = new IdDeduplicator(expectedDocs);
 
         this.start = System.currentTimeMillis();
 
     }
 
+    /**
+     * Makes the indexer ingest documents through a pipeline of separate stages, connected by bounded queues, instead of
+     * parsing and indexing each file on a single thread. At the end of the indexing the time spent by each stage
+     * working and waiting is printed, so that the slowest stage can be given more threads.
+     * <p>
+     * The documents to be indexed are chosen on a single thread in source order, so the copy of a duplicate document
+     * which is indexed is the first one, as when indexing sequentially; see {@link IngestionPipeline}.
+     * <p>
+     * It must be invoked before {@link #index()} and overrides the number of threads given to the constructor.
+     *
+     * @param readThreads  the number of threads reading files from disk.
+     * @param parseThreads the number of threads parsing files.
+     * @param buildThreads the number of threads building Lucene documents.
+     * @param writeThreads the number of threads adding documents to the index.
+     * @throws IllegalArgumentException if any of the parameters is less than or equal to zero.
+     */
+    public void setPipeline(final int readThreads, final int parseThreads, final int buildThreads,
+                            final int writeThreads) {
+        pipeline = new IngestionPipeline(readThreads, parseThreads, buildThreads, writeThreads,
+                PIPELINE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Makes the indexer memory-map the files and hand their bytes straight to the parser, instead of reading them
+     * through a buffered {@code Reader}. This saves the copies through the kernel and {@code Reader} buffers and the
+     * decoding of the whole file into characters, since the parser decodes only the values it keeps.
+     * <p>
+     * It must be invoked before {@link #index()} and applies to all the indexing modes.
+     *
+     * @param memoryMapped whether files have to be memory-mapped.
+     * @throws IllegalArgumentException if files have to be memory-mapped and their charset is not UTF-8.
+     */
+    public void setMemoryMapped(final boolean memoryMapped) {
+
+        if (memoryMapped && !StandardCharsets.UTF_8.equals(cs)) {
+            throw new IllegalArgumentException(
+                    String.format("Memory-mapped files must be UTF-8 encoded, not %s.", cs.name()));
+        }
+
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Makes the indexer update the existing index, instead of rebuilding it, re-indexing only the sources which are
+     * new or changed since the last indexing and removing the documents of the deleted ones.
+     * <p>
+     * The indexed sources are recorded in a manifest stored in the index directory. The whole index is rebuilt if there
+     * is no manifest, or the index was built with a different schema, parser, analyzer or similarity, as recorded by
+     * the fingerprint in the user data of its last commit. If nothing changed, the index is left untouched, so an
+     * existing index can be reused at the cost of checking the sizes and modification times of the files.
+     * <p>
+     * The index keeps the same copy of each duplicate document as a full rebuild, i.e. the one of the first source
+     * holding it: a document of a changed source is not indexed if an unchanged source preceding it holds a copy, and
+     * replaces the copy of an unchanged source following it. A document of a changed or deleted source which is not
+     * indexed again is recovered from the first unchanged source holding it, if any: the manifest records the copies
+     * held by each source which are not indexed from it, so only the sources holding a copy are parsed again.
+     * <p>
+     * It must be invoked before {@link #index()}.
+     *
+     * @param incremental whether the index has to be updated incrementally.
+     */
+    public void setIncremental(final boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Makes each indexing thread fill the same Lucene {@code Document} and {@code Field}s for all its documents,
+     * instead of allocating new ones; when indexing on a single thread, the parser fills the same
+     * {@code ParsedDocument} too. This lowers the allocation rate, and so the garbage collection work, of bulk
+     * indexing.
+     * <p>
+     * It must be invoked before {@link #index()}. It has no effect on the ingestion pipeline, where documents are
+     * handed over between threads.
+     *
+     * @param reuseDocuments whether documents have to be reused.
+     */
+    public void setReuseDocuments(final boolean reuseDocuments) {
+        this.reuseDocuments = reuseDocuments;
+    }
+
+    /**
+     * Makes the indexer analyze only once the values of the body fields shared by many documents (see {@link
+     * ParsedDocument#REPEATED_FIELDS}), like the title of a debate, and replay their tokens for the following
+     * documents. The index is the same as without the cache. At the end of the indexing the hit rate of the cache is
+     * printed.
+     * <p>
+     * It must be invoked before {@link #index()} and applies to all the indexing modes.
+     *
+     * @param maxEntries the maximum number of values whose analysis is cached, the least recently used ones being
+     *                   evicted; zero disables the cache.
+     * @throws IllegalArgumentException if {@code maxEntries} is negative.
+     */
+    public void setAnalysisCache(final int maxEntries) {
+
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("The maximum number of cached values cannot be negative.");
+        }
+
+        analysisCache = maxEntries == 0 ? null : new AnalysisCache(iwc.getAnalyzer(), ParsedDocument.FIELDS.BODY,
+                maxEntries, ANALYSIS_CACHE_MAX_VALUE_LENGTH);
+    }
+
+    /**
+     * Makes the indexer compute the VADER sentiment of the premises of each document and index it as a numeric column
+     * (see {@link ParsedDocument.FIELDS#SENTIMENT}), so that {@link it.unipd.dei.jpp.search.JPPReScorer} re-ranks the
+     * hits without loading their stored fields nor analyzing their sentiment at query time. The sentiment is part of
+     * the configuration of the index, so an index built without it is rebuilt.
+     * <p>
+     * It must be invoked before {@link #index()}.
+     *
+     * @param sentiment whether the sentiment of the premises has to be indexed.
+     */
+    public void setSentiment(final boolean sentiment) {
+        this.sentiment = sentiment;
+    }
+
     /**
      * Indexes the documents.
+     * <p>
+     * If the indexing fails, the documents indexed so far are discarded and the index is left as it was at its last
+     * commit.
      *
      * @throws IOException if something goes wrong while indexing.
      */
@@ -259,100 +559,898 @@ public class DirectoryIndexer {
 
         System.out.printf("%n#### Start indexing ####%n");
 
-        Map<String, Integer> parsedIDS = new HashMap<>();
+        final Directory dir = FSDirectory.open(indexDir);
 
-        Files.walkFileTree(docsDir, new SimpleFileVisitor<>() {
-            @Override
-            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                if (file.getFileName().toString().endsWith(extension)) {
-                    DocumentParser dp = DocumentParser.create(dpCls, Files.newBufferedReader(file, cs));
+        List<DocumentSource> sources = listSources();
+        for (DocumentSource source : sources) {
+            sourceRanks.put(source.getName(), sourceRanks.size());
+            sourceNames.add(source.getName());
+        }
 
-                    bytesCount += Files.size(file);
-                    filesCount += 1;
+        final Map<String, String> fingerprint = IndexFingerprint.compute(SCHEMA_VERSION,
+                dpCls.getName() + new TreeSet<>(INDEXED_FIELDS) + (sentiment ? ParsedDocument.FIELDS.SENTIMENT : ""),
+                iwc.getAnalyzer(), analyzerName,
+                INDEXED_FIELDS, iwc.getSimilarity());
+
+        IndexManifest previous = null;
+        if (incremental && DirectoryReader.indexExists(dir)) {
+            final Map<String, String> committed = SegmentInfos.readLatestCommit(dir).getUserData();
+
+            if (!IndexFingerprint.matches(fingerprint, committed)) {
+                System.out.printf("Index built with a different configuration: rebuilding it.%n");
+            } else if ((previous = IndexManifest.read(indexDir)) == null
+                    || !previous.digest().equals(committed.get(IndexFingerprint.CORPUS))) {
+                System.out.printf("Index manifest missing or out of sync: rebuilding the index.%n");
+                previous = null;
+            }
+        }
 
-                    Document doc;
-                    for (ParsedDocument pd : dp) {
-                        String id = pd.getIdentifier();
+        manifest = new IndexManifest();
 
-                        if (!parsedIDS.containsKey(id)) {
-                            parsedIDS.put(id, 1);
+        // the sources whose documents have to be dropped before indexing
+        final List<String> dropped = new ArrayList<>();
 
+        // the unchanged sources and the identifiers of the documents of the dropped sources, to recover the ones which
+        // are not indexed again
+        final List<DocumentSource> unchanged = new ArrayList<>();
+        Set<String> droppedIds = Collections.emptySet();
 
-                            // Remove premises with less than 25 characters (removed)
-                            /*
-                            String premises = pd.getPremises();
-                            String [] words = premises.split("\\s+");
-                            if(words.length<25){
-                                continue;
-                            }
-                            */
+        if (previous != null) {
+            final List<DocumentSource> changed = new ArrayList<>();
+            for (DocumentSource source : sources) {
+                if (manifest.recordIfChanged(source.getName(), source, previous)) {
+                    changed.add(source);
+                } else {
+                    unchanged.add(source);
+                }
+            }
 
-                            doc = new Document();
+            if (changed.isEmpty() && manifest.names().containsAll(previous.names())) {
+                // keep the modification times of touched files, so that they are not hashed again next time
+                manifest.write(indexDir);
+                System.out.printf("Index is up to date: %d source(s) unchanged.%n", sources.size());
+                System.out.printf("#### Indexing complete ####%n");
+                return;
+            }
 
-                            // add the document identifier
-                            doc.add(new MetaField(ParsedDocument.FIELDS.ID, pd.getIdentifier()));
+            // drop the documents of the changed and deleted sources; the changed ones are indexed again below
+            for (String name : previous.names()) {
+                if (!manifest.names().contains(name)) {
+                    dropped.add(name);
+                }
+            }
+            final int removed = dropped.size();
+            for (DocumentSource source : changed) {
+                dropped.add(source.getName());
+            }
 
-                            // add the document body
-                            BodyField bodyField = new BodyField(ParsedDocument.FIELDS.BODY, pd.getFullBody());
-                            doc.add(bodyField);
+            // read before the documents of the dropped sources are deleted
+            copies = new IndexedCopies(DirectoryReader.open(dir), sourceRanks, new HashSet<>(dropped));
+            try {
+                droppedIds = copies.droppedIds();
 
-                            // add (and store) document premises
-                            BodyMetaField premisesField = new BodyMetaField(ParsedDocument.FIELDS.PREMISES, pd.getPremises());
-                            doc.add(premisesField);
+                iwc.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
+                writer = new IndexWriter(dir, iwc);
+            } catch (IOException | RuntimeException e) {
+                copies.close();
+                throw e;
+            }
+            upsert = true;
+
+            System.out.printf("%d source(s) unchanged, %d new or changed, %d removed.%n",
+                    sources.size() - changed.size(), changed.size(), removed);
+            sources = changed;
+        } else {
+            // the manifest goes away with the index it describes
+            IndexManifest.delete(indexDir);
+
+            if (incremental) {
+                for (DocumentSource source : sources) {
+                    manifest.record(source.getName(), source);
+                }
+            }
 
-                            // add (and store) document conclusion
-                            BodyMetaField conclusionsField = new BodyMetaField(ParsedDocument.FIELDS.CONCLUSION, pd.getConclusion());
-                            doc.add(conclusionsField);
+            iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            writer = new IndexWriter(dir, iwc);
+        }
 
-                            // add document stance
-                            doc.add(new MetaField(ParsedDocument.FIELDS.STANCE, pd.getStance()));
+        try {
+            for (String name : dropped) {
+                writer.deleteDocuments(new Term(ParsedDocument.FIELDS.SOURCE_FILE, name));
+            }
 
-                            writer.addDocument(doc);
+            if (pipeline != null) {
+                indexPipeline(sources);
+            } else if (threads == 1) {
+                for (DocumentSource source : sources) {
+                    indexSource(source);
+                }
+            } else {
+                indexParallel(sources);
+            }
 
-                            docsCount++;
+            if (upsert) {
+                recoverDropped(unchanged, droppedIds);
+            }
 
-                            // print progress every 10000 indexed documents
-                            if (docsCount % 10000 == 0) {
-                                System.out.printf("%d document(s) (%d files, %d MB) indexed in %d seconds.%n",
-                                        docsCount, filesCount, bytesCount / MEGABYTE,
-                                        (System.currentTimeMillis() - start) / 1000);
-                            }
+            final Map<String, String> userData = new HashMap<>(fingerprint);
+            if (incremental) {
+                userData.put(IndexFingerprint.CORPUS, manifest.digest());
+            }
+            writer.setLiveCommitData(userData.entrySet());
 
-                            if (MAX_DOCUMENTS > 0 && docsCount >= MAX_DOCUMENTS) {
-                                break;
-                            }
-                        } else {
-                            int parsedNum = parsedIDS.get(id);
-                            parsedIDS.put(id, parsedNum + 1);
+            writer.commit();
+        } catch (IOException | RuntimeException e) {
+            // discard the partial indexing and release the write lock, leaving the last committed index as it was
+            try {
+                writer.rollback();
+            } catch (IOException | RuntimeException re) {
+                e.addSuppressed(re);
+            }
+            throw e;
+        } finally {
+            if (copies != null) {
+                copies.close();
+            }
+        }
+
+        writer.close();
+
+        // written only once the index is committed, so that a failed indexing is retried next time
+        if (incremental) {
+            manifest.write(indexDir);
+        }
+
+        if (!upsert && docsCount.get() != expectedDocs) {
+            System.out.printf("Expected to index %d documents; %d indexed instead.%n", expectedDocs, docsCount.get());
+        }
+
+        System.out.printf("%d document(s) (%d files, %d MB) indexed in %d seconds.%n", docsCount.get(),
+                filesCount.get(), bytesCount.get() / MEGABYTE, (System.currentTimeMillis() - start) / 1000);
+
+        if (pipeline != null) {
+            pipeline.printStats();
+        }
+
+        System.out.println("Duplicate documents found:");
+        for (Map.Entry<String, Integer> e : parsedIDS.duplicates().entrySet()) {
+            System.out.printf("Document with ID %s appears %d times%n", e.getKey(), e.getValue());
+        }
+        // identifiers are compared by their hashes, so a distinct one may be taken for a duplicate with this probability
+        System.out.printf("%d distinct document ID(s) deduplicated in %d KB (probability of a hash collision %.1e).%n",
+                parsedIDS.size(), parsedIDS.bytes() / 1024, parsedIDS.collisionProbability());
+
+        if (analysisCache != null) {
+            System.out.printf("Analysis cache: %s.%n", analysisCache.report());
+        }
+
+        System.out.printf("#### Indexing complete ####%n");
+    }
+
+    /**
+     * Indexes the files parsing and indexing them on {@code threads} workers.
+     * <p>
+     * Each file is split into chunks of whole arguments (see {@link JsonArraySplitter}), which are parsed
+     * concurrently, so that also a single large file keeps all the workers busy. The parsed documents are deduplicated
+     * by the calling thread in file and chunk order, and the kept ones are analyzed and indexed concurrently, each chunk
+     * into its own in-memory index (see {@link ChunkIndex}). The chunk indexes are then added to the index in chunk
+     * order: the documents are added to the index in the same order, and so get the same identifiers, as when indexing
+     * on a single thread. This keeps reproducible the runs, whose ties are broken by document identifier.
+     * <p>
+     * Files are split only when their charset is UTF-8; otherwise each file is a single chunk. Compressed files and
+     * archive entries are never split, but they are decompressed in parallel as separate chunks.
+     *
+     * @param sources the sources to be indexed.
+     * @throws IOException if something goes wrong while indexing.
+     */
+    private void indexParallel(final List<DocumentSource> sources) throws IOException {
+
+        final ExecutorService splitPool = Executors.newSingleThreadExecutor();
+        final ExecutorService parsePool = Executors.newFixedThreadPool(threads);
+        final ExecutorService indexPool = Executors.newFixedThreadPool(threads);
+
+        final BlockingQueue<ParsedChunk> chunks = new ArrayBlockingQueue<>(threads * PARALLEL_CHUNKS_PER_THREAD);
+        final Deque<ChunkIndex> indexed = new ArrayDeque<>();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // split the files and submit the chunks to be parsed, in order
+        splitPool.execute(() -> {
+            try {
+                for (DocumentSource source : sources) {
+                    bytesCount.addAndGet(source.size());
+                    filesCount.incrementAndGet();
+
+                    if (!StandardCharsets.UTF_8.equals(cs) || source.isCompressed()) {
+                        submit(chunks, parsePool, new ParsedChunk(source, 0, -1));
+                        continue;
+                    }
+
+                    try (InputStream in = source.open(memoryMapped)) {
+                        final JsonArraySplitter splitter = new JsonArraySplitter(in, PARALLEL_CHUNK_SIZE);
+                        JsonArraySplitter.Chunk c;
+                        while ((c = splitter.next()) != null) {
+                            submit(chunks, parsePool, new ParsedChunk(source, c.getStart(), c.getEnd()));
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                try {
+                    chunks.put(ParsedChunk.END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        ChunkIndex current = null;
+        try {
+            // deduplicate the parsed documents in order and hand the kept ones to be indexed
+            long kept = 0;
+            ParsedChunk chunk;
+            chunks:
+            while ((chunk = chunks.take()) != ParsedChunk.END) {
+                final String source = chunk.getSource().getName();
+
+                current = new ChunkIndex(source, failure);
+                indexed.add(current);
+                indexPool.execute(current);
+
+                List<ParsedDocument> parsed;
+                while ((parsed = chunk.take()) != ParsedChunk.NO_MORE_DOCUMENTS) {
+                    final List<ParsedDocument> batch = new ArrayList<>(parsed.size());
+                    for (ParsedDocument pd : parsed) {
+                        if (MAX_DOCUMENTS > 0 && kept >= MAX_DOCUMENTS) {
+                            break;
+                        }
+                        if (accept(source, pd)) {
+                            batch.add(pd);
+                            kept++;
                         }
+                    }
+                    if (!batch.isEmpty()) {
+                        current.put(batch);
+                    }
+                    if (MAX_DOCUMENTS > 0 && kept >= MAX_DOCUMENTS) {
+                        break chunks;
+                    }
+                }
+
+                current.end();
+                current = null;
+
+                // add the chunks indexed so far, in order, waiting for the oldest one if too many are pending
+                while (!indexed.isEmpty()
+                        && (indexed.peek().isDone() || indexed.size() > threads * PARALLEL_CHUNKS_PER_THREAD)) {
+                    addChunk(indexed.poll());
+                }
+
+                if (failure.get() != null) {
+                    break;
+                }
+            }
+
+            if (current != null) {
+                current.end();
+                current = null;
+            }
+
+            while (!indexed.isEmpty() && failure.get() == null) {
+                addChunk(indexed.poll());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (IOException | RuntimeException e) {
+            // a chunk could not be parsed or indexed: stop splitting and parsing the following ones
+            failure.compareAndSet(null, e);
+        } finally {
+            splitPool.shutdownNow();
+            parsePool.shutdownNow();
+
+            // let the workers complete the chunks left, without interrupting their writers, and discard them
+            if (current != null) {
+                current.abort();
+            }
+            indexPool.shutdown();
+            awaitTermination(indexPool);
+            for (ChunkIndex c : indexed) {
+                c.close();
+            }
+        }
+
+        final Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t != null) {
+            throw new IOException(String.format("Unable to index documents: %s.", t.getMessage()), t);
+        }
+    }
 
+    /**
+     * Waits for a chunk to be indexed and adds its documents to the index.
+     *
+     * @param chunk the chunk.
+     * @throws IOException          if the chunk could not be indexed or added to the index.
+     * @throws InterruptedException if interrupted while waiting for the chunk.
+     */
+    private void addChunk(final ChunkIndex chunk) throws IOException, InterruptedException {
+        try {
+            writer.addIndexes(chunk.await());
+        } finally {
+            chunk.close();
+        }
+    }
+
+    /**
+     * Waits for the termination of a pool which has been shut down, even if interrupted in the meantime.
+     *
+     * @param pool the pool.
+     */
+    private static void awaitTermination(final ExecutorService pool) {
+        boolean interrupted = false;
+        while (!pool.isTerminated()) {
+            try {
+                pool.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A chunk of deduplicated documents indexed by a worker into its own in-memory index, which is then added to the
+     * index in chunk order.
+     */
+    private final class ChunkIndex implements Runnable, Closeable {
+
+        /**
+         * The name of the source of the chunk.
+         */
+        private final String source;
+
+        /**
+         * The batches of documents to be indexed, ended by {@link ParsedChunk#NO_MORE_DOCUMENTS}.
+         */
+        private final BlockingQueue<List<ParsedDocument>> batches =
+                new ArrayBlockingQueue<>(PARALLEL_BATCHES_PER_CHUNK);
+
+        /**
+         * The in-memory index of the chunk.
+         */
+        private final Directory dir = new ByteBuffersDirectory();
+
+        /**
+         * Counted down when the chunk has been indexed or has failed.
+         */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        /**
+         * The first failure of the whole indexing, set when this chunk fails.
+         */
+        private final AtomicReference<Throwable> failure;
+
+        /**
+         * Whether the end of the batches has been taken by the worker.
+         */
+        private boolean ended = false;
+
+        /**
+         * The error which occurred while indexing the chunk, if any.
+         */
+        private volatile Throwable error;
+
+        /**
+         * Creates the index of a chunk.
+         *
+         * @param source  the name of the source of the chunk.
+         * @param failure the first failure of the whole indexing.
+         */
+        private ChunkIndex(final String source, final AtomicReference<Throwable> failure) {
+            this.source = source;
+            this.failure = failure;
+        }
+
+        /**
+         * Hands a batch of documents to be indexed.
+         *
+         * @param batch the documents.
+         * @throws InterruptedException if interrupted while waiting for room in the queue.
+         */
+        private void put(final List<ParsedDocument> batch) throws InterruptedException {
+            batches.put(batch);
+        }
+
+        /**
+         * Marks the end of the documents of the chunk.
+         *
+         * @throws InterruptedException if interrupted while waiting for room in the queue.
+         */
+        private void end() throws InterruptedException {
+            batches.put(ParsedChunk.NO_MORE_DOCUMENTS);
+        }
+
+        /**
+         * Discards the documents not yet indexed and marks the end of the chunk, without waiting. To be called only by
+         * the thread handing the batches, when it stops before the end of the chunk.
+         */
+        private void abort() {
+            batches.clear();
+            batches.offer(ParsedChunk.NO_MORE_DOCUMENTS);
+        }
+
+        /**
+         * Returns whether the chunk has been indexed or has failed.
+         *
+         * @return {@code true} if the chunk has been indexed or has failed.
+         */
+        private boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * Waits for the chunk to be indexed and returns its index.
+         *
+         * @return the directory of the index of the chunk.
+         * @throws IOException          if the chunk could not be indexed.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        private Directory await() throws IOException, InterruptedException {
+            done.await();
+            if (error != null) {
+                throw new IOException(String.format("Unable to index a chunk of %s: %s.", source, error.getMessage()),
+                        error);
+            }
+            return dir;
+        }
+
+        @Override
+        public void run() {
+            final IndexWriterConfig cfg = new IndexWriterConfig(iwc.getAnalyzer());
+            cfg.setSimilarity(iwc.getSimilarity());
+            cfg.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            // the segments are added as they are to the index, which merges them
+            cfg.setMergePolicy(NoMergePolicy.INSTANCE);
+
+            try (IndexWriter w = new IndexWriter(dir, cfg)) {
+                List<ParsedDocument> batch;
+                while ((batch = batches.take()) != ParsedChunk.NO_MORE_DOCUMENTS) {
+                    for (ParsedDocument pd : batch) {
+                        addDocument(w, buildDocument(source, pd));
+                    }
+                }
+                ended = true;
+            } catch (Throwable t) {
+                error = t;
+                failure.compareAndSet(null, t);
+
+                // drain the batches, so that the thread handing them is never blocked
+                try {
+                    while (!ended && batches.take() != ParsedChunk.NO_MORE_DOCUMENTS) {
+                        // discard the batch
                     }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            dir.close();
+        }
+    }
+
+    /**
+     * Queues a chunk to be deduplicated and submits it to be parsed. The chunk is queued first, so that the parsing of
+     * the oldest chunk in the queue is always started before the parsing of the following ones.
+     *
+     * @param chunks the queue of the chunks to be deduplicated.
+     * @param pool   the pool parsing the chunks.
+     * @param chunk  the chunk.
+     * @throws InterruptedException if interrupted while waiting for room in the queue.
+     */
+    private void submit(final BlockingQueue<ParsedChunk> chunks, final ExecutorService pool, final ParsedChunk chunk)
+            throws InterruptedException {
+        chunks.put(chunk);
+        pool.execute(() -> chunk.parse(dpCls, cs, INDEXED_FIELDS, memoryMapped));
+    }
+
+    /**
+     * Indexes the files through the ingestion pipeline.
+     *
+     * @param sources the sources to be indexed.
+     * @throws IOException if something goes wrong while indexing.
+     */
+    private void indexPipeline(final List<DocumentSource> sources) throws IOException {
+        pipeline.run(sources, memoryMapped, (source, in) -> {
+            bytesCount.addAndGet(source.size());
+            filesCount.incrementAndGet();
+            return memoryMapped ? DocumentParser.create(dpCls, in, INDEXED_FIELDS)
+                    : DocumentParser.create(dpCls, new InputStreamReader(in, cs), INDEXED_FIELDS);
+        }, (source, pd) -> {
+            if (MAX_DOCUMENTS > 0 && docsCount.get() >= MAX_DOCUMENTS) {
+                return false;
+            }
+            return accept(source.getName(), pd);
+        }, (source, pd) -> buildDocument(source.getName(), pd), doc -> addDocument(writer, doc));
+    }
+
+    /**
+     * Indexes again the documents of the dropped sources which have not been indexed again, taking the copy of the
+     * first unchanged source holding them, as a full rebuild would.
+     * <p>
+     * Only the unchanged sources which the manifest records to hold a copy of a missing document are parsed; the
+     * documents without any other copy are dropped without parsing any source.
+     *
+     * @param unchanged the unchanged sources, in indexing order.
+     * @param ids       the identifiers of the documents of the dropped sources.
+     * @throws IOException if something goes wrong while indexing.
+     */
+    private void recoverDropped(final List<DocumentSource> unchanged, final Set<String> ids) throws IOException {
+
+        final Set<String> missing = new HashSet<>();
+        try (DirectoryReader reader = DirectoryReader.open(writer)) {
+            for (String id : ids) {
+                if (!IndexedCopies.contains(reader, id)) {
+                    missing.add(id);
+                }
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
 
+        final int lost = missing.size();
+        int parsed = 0;
+        for (DocumentSource source : unchanged) {
+
+            if (missing.isEmpty()) {
+                break;
+            }
+
+            final Set<String> held = new HashSet<>(manifest.copies(source.getName()));
+            held.retainAll(missing);
+            if (held.isEmpty()) {
+                continue;
+            }
+
+            parsed++;
+            try (InputStream in = source.open(memoryMapped)) {
+                final DocumentParser dp = DocumentSource.parser(dpCls, in, cs, INDEXED_FIELDS, memoryMapped);
+
+                for (ParsedDocument pd : dp) {
+                    if (held.remove(pd.getIdentifier())) {
+                        missing.remove(pd.getIdentifier());
+                        manifest.removeCopy(source.getName(), pd.getIdentifier());
+                        addDocument(writer, buildDocument(source.getName(), pd));
+
+                        if (held.isEmpty()) {
+                            break;
+                        }
+                    }
                 }
+            }
+        }
+
+        System.out.printf("%d document(s) of the changed or removed sources recovered from %d unchanged source(s), "
+                + "%d dropped.%n", lost - missing.size(), parsed, missing.size());
+    }
+
+    /**
+     * Returns the sources to be indexed, sorted by file and entry name, so that they are indexed in the same order
+     * whatever the file system: the files with the given extension, the gzip compressed ones and the entries with the
+     * given extension of the zip archives.
+     *
+     * @return the sources to be indexed.
+     * @throws IOException if something goes wrong while visiting the directory.
+     */
+    private List<DocumentSource> listSources() throws IOException {
+
+        final List<DocumentSource> sources = new ArrayList<>();
+
+        Files.walkFileTree(docsDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                DocumentSource.list(docsDir, file, extension, sources);
                 return FileVisitResult.CONTINUE;
             }
         });
 
-        writer.commit();
+        Collections.sort(sources);
 
-        writer.close();
+        return sources;
+    }
 
-        if (docsCount != expectedDocs) {
-            System.out.printf("Expected to index %d documents; %d indexed instead.%n", expectedDocs, docsCount);
+    /**
+     * Parses a source and indexes all the documents it contains on the calling thread.
+     *
+     * @param source the source to be indexed.
+     * @throws IOException if something goes wrong while indexing.
+     */
+    private void indexSource(final DocumentSource source) throws IOException {
+
+        bytesCount.addAndGet(source.size());
+        filesCount.incrementAndGet();
+
+        try (InputStream in = source.open(memoryMapped)) {
+            final DocumentParser dp = DocumentSource.parser(dpCls, in, cs, INDEXED_FIELDS, memoryMapped);
+            // each document is indexed before the next one is parsed
+            dp.setReuseDocuments(reuseDocuments);
+
+            for (ParsedDocument pd : dp) {
+
+                if (MAX_DOCUMENTS > 0 && docsCount.get() >= MAX_DOCUMENTS) {
+                    break;
+                }
+
+                // only the first copy of each document is indexed
+                if (accept(source.getName(), pd)) {
+                    addDocument(writer, buildDocument(source.getName(), pd));
+                }
+            }
         }
+    }
 
-        System.out.printf("%d document(s) (%d files, %d MB) indexed in %d seconds.%n", docsCount, filesCount,
-                bytesCount / MEGABYTE, (System.currentTimeMillis() - start) / 1000);
+    /**
+     * Builds the Lucene document for a parsed document. Safe to be called concurrently, as the chunk workers and the
+     * build threads of the pipeline do.
+     *
+     * @param source the name of the source the document was parsed from.
+     * @param pd     the parsed document.
+     * @return the Lucene document.
+     */
+    private Document buildDocument(final String source, final ParsedDocument pd) {
 
-        System.out.println("Duplicate documents found:");
-        for (String id : parsedIDS.keySet()) {
-            int parsedNum = parsedIDS.get(id);
-            if (parsedNum > 1) {
-                System.out.printf("Document with ID %s appears %d times%n", id, parsedNum);
+        // Remove premises with less than 25 characters (removed)
+        /*
+        String premises = pd.getPremises();
+        String [] words = premises.split("\\s+");
+        if(words.length<25){
+            return null;
+        }
+        */
+
+        // a reused document is safe only if it is indexed by the same thread before building the next one
+        final DocumentFields fields = reuseDocuments && pipeline == null ? reusableFields.get() : new DocumentFields();
+
+        return fields.fill(source, pd, analysisCache, sentiment);
+    }
+
+    /**
+     * The fields of a Lucene document, which can be filled again to index another document without allocating them.
+     */
+    private static final class DocumentFields {
+
+        /**
+         * The document.
+         */
+        private final Document doc = new Document();
+
+        /**
+         * The identifier field.
+         */
+        private final MetaField id = new MetaField(ParsedDocument.FIELDS.ID, "");
+
+        /**
+         * The identifier column, read by the searcher to resolve the identifiers of the hits without loading the
+         * stored fields.
+         */
+        private final SortedDocValuesField idValue = new SortedDocValuesField(ParsedDocument.FIELDS.ID, new BytesRef());
+
+        /**
+         * The bytes of the identifier, reused for each document.
+         */
+        private final BytesRefBuilder idBytes = new BytesRefBuilder();
+
+        /**
+         * The values of the body field, one for each of {@link ParsedDocument#BODY_FIELDS}.
+         */
+        private final BodyField[] body = new BodyField[ParsedDocument.BODY_FIELDS.size()];
+
+        /**
+         * Whether each of {@link ParsedDocument#BODY_FIELDS} is one of {@link ParsedDocument#REPEATED_FIELDS}.
+         */
+        private static final boolean[] REPEATED = new boolean[ParsedDocument.BODY_FIELDS.size()];
+
+        static {
+            for (int i = 0; i < REPEATED.length; i++) {
+                REPEATED[i] = ParsedDocument.REPEATED_FIELDS.contains(ParsedDocument.BODY_FIELDS.get(i));
             }
         }
 
-        System.out.printf("#### Indexing complete ####%n");
+        /**
+         * The streams replaying the cached tokens of the repeated body values, created when first needed.
+         */
+        private final AnalysisCache.Replay[] replays = new AnalysisCache.Replay[ParsedDocument.BODY_FIELDS.size()];
+
+        /**
+         * The premises field.
+         */
+        private final BodyMetaField premises = new BodyMetaField(ParsedDocument.FIELDS.PREMISES, "");
+
+        /**
+         * The conclusion field.
+         */
+        private final BodyMetaField conclusion = new BodyMetaField(ParsedDocument.FIELDS.CONCLUSION, "");
+
+        /**
+         * The stance field.
+         */
+        private final MetaField stance = new MetaField(ParsedDocument.FIELDS.STANCE, "");
+
+        /**
+         * The sentiment column.
+         */
+        private final FloatDocValuesField sentimentValue = new FloatDocValuesField(ParsedDocument.FIELDS.SENTIMENT, 0f);
+
+        /**
+         * The source field.
+         */
+        private final StringField sourceFile = new StringField(ParsedDocument.FIELDS.SOURCE_FILE, "", Field.Store.NO);
+
+        /**
+         * Creates the fields of a document.
+         */
+        private DocumentFields() {
+            for (int i = 0; i < body.length; i++) {
+                body[i] = new BodyField(ParsedDocument.FIELDS.BODY, "");
+            }
+        }
+
+        /**
+         * Fills the fields with the values of a parsed document.
+         *
+         * @param source    the name of the source the document was parsed from.
+         * @param pd        the parsed document.
+         * @param cache     the cache of the analysis of the repeated body values, or {@code null} if none.
+         * @param sentiment whether the sentiment of the premises has to be indexed.
+         * @return the Lucene document.
+         * @throws UncheckedIOException if the sentiment of the premises cannot be computed.
+         */
+        private Document fill(final String source, final ParsedDocument pd, final AnalysisCache cache,
+                              final boolean sentiment) {
+
+            doc.clear();
+
+            // add the document identifier
+            id.setStringValue(pd.getIdentifier());
+            doc.add(id);
+            idBytes.copyChars(pd.getIdentifier());
+            idValue.setBytesValue(idBytes.get());
+            doc.add(idValue);
+
+            // add the document body, one value per body field, so that the analyzer reads them in place
+            for (int i = 0; i < body.length; i++) {
+                final String value = pd.get(ParsedDocument.BODY_FIELDS.get(i));
+                if (value != null) {
+                    body[i].setStringValue(value);
+
+                    // replay the cached tokens of a repeated value, if any, instead of analyzing it again
+                    TokenStream tokens = null;
+                    if (cache != null && REPEATED[i]) {
+                        if (replays[i] == null) {
+                            replays[i] = new AnalysisCache.Replay();
+                        }
+                        tokens = cache.tokenStream(value, replays[i]);
+                    }
+                    body[i].setTokenStream(tokens);
+
+                    doc.add(body[i]);
+                }
+            }
+
+            // add (and store) document premises
+            premises.setStringValue(pd.getPremises());
+            doc.add(premises);
+
+            // add (and store) document conclusion
+            conclusion.setStringValue(pd.getConclusion());
+            doc.add(conclusion);
+
+            // add document stance
+            stance.setStringValue(pd.getStance());
+            doc.add(stance);
+
+            // add the sentiment of the premises, used to re-rank the hits
+            if (sentiment) {
+                try {
+                    sentimentValue.setFloatValue(AnalyzerUtil.sentiment(pd.getPremises()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(String.format("Unable to compute the sentiment of document %s: %s.",
+                            pd.getIdentifier(), e.getMessage()), e);
+                }
+                doc.add(sentimentValue);
+            }
+
+            // add the source, to drop its documents when it changes
+            sourceFile.setStringValue(source);
+            doc.add(sourceFile);
+
+            return doc;
+        }
+    }
+
+    /**
+     * Returns whether a parsed document has to be indexed: only the first copy of each document is indexed and, when
+     * upserting, only if no unchanged source preceding its own one holds a copy. The later copy it replaces, if any, is
+     * deleted from the index.
+     * <p>
+     * It is called by a single thread, in source order, so that the first copy of each document is the one of the
+     * sequential indexing whatever the number of threads.
+     *
+     * @param source the name of the source the document was parsed from.
+     * @param pd     the parsed document.
+     * @return {@code true} if the document has to be indexed.
+     * @throws IOException if something goes wrong while reading or updating the index.
+     */
+    private boolean accept(final String source, final ParsedDocument pd) throws IOException {
+
+        final String id = pd.getIdentifier();
+        if (!parsedIDS.add(id)) {
+            holdsCopy(source, id);
+            return false;
+        } else if (!upsert) {
+            return true;
+        }
+
+        final int indexed = copies.sourceOf(id);
+
+        // the copy of a preceding unchanged source is the one a full rebuild keeps
+        if (indexed >= 0 && indexed < sourceRanks.get(source)) {
+            holdsCopy(source, id);
+            return false;
+        } else if (indexed >= 0) {
+            writer.deleteDocuments(new Term(ParsedDocument.FIELDS.ID, id));
+            holdsCopy(sourceNames.get(indexed), id);
+        }
+
+        return true;
+    }
+
+    /**
+     * Records in the manifest, if indexing incrementally, that a source holds a copy of a document which is not
+     * indexed from it, so that the copy can be recovered if the indexed one is dropped.
+     *
+     * @param source the name of the source.
+     * @param id     the identifier of the document.
+     */
+    private void holdsCopy(final String source, final String id) {
+        if (incremental) {
+            manifest.addCopy(source, id);
+        }
+    }
+
+    /**
+     * Adds a document to an index. Safe to be called concurrently, as the chunk workers and the write threads of the
+     * pipeline do.
+     *
+     * @param w   the writer of the index.
+     * @param doc the document to be indexed.
+     * @throws IOException if something goes wrong while indexing.
+     */
+    private void addDocument(final IndexWriter w, final Document doc) throws IOException {
+
+        w.addDocument(doc);
+
+        final long indexed = docsCount.incrementAndGet();
+
+        // print progress every 10000 indexed documents
+        if (indexed % 10000 == 0) {
+            System.out.printf("%d document(s) (%d files, %d MB) indexed in %d seconds.%n",
+                    indexed, filesCount.get(), bytesCount.get() / MEGABYTE,
+                    (System.currentTimeMillis() - start) / 1000);
+            if (pipeline != null) {
+                System.out.printf("  %s%n", pipeline.queueDepths());
+            }
+        }
     }
 
 }
@@ -0,0 +1,300 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import it.unipd.dei.jpp.parse.DocumentParser;
+import it.unipd.dei.jpp.utils.MappedFileInputStream;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A source of documents to be parsed: a plain file, a gzip compressed file or an entry of a zip archive.
+ * <p>
+ * Compressed sources are decompressed while they are read, so that the corpus can be indexed straight from the
+ * downloaded archive. Each source is opened on its own, so the entries of an archive can be decompressed
+ * concurrently.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+final class DocumentSource implements Comparable<DocumentSource> {
+
+    /**
+     * The extension of gzip compressed files.
+     */
+    private static final String GZIP_EXTENSION = ".gz";
+
+    /**
+     * The extension of zip archives.
+     */
+    private static final String ZIP_EXTENSION = ".zip";
+
+    /**
+     * The directory of the metadata added by macOS to zip archives, whose entries are not documents.
+     */
+    private static final String ZIP_METADATA_DIRECTORY = "__MACOSX/";
+
+    /**
+     * The size of the buffer of the decompressing streams.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Orders sources by file and then by entry.
+     */
+    private static final Comparator<DocumentSource> ORDER = Comparator.comparing((DocumentSource s) -> s.file)
+            .thenComparing(s -> s.entry, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    /**
+     * The file containing the source.
+     */
+    private final Path file;
+
+    /**
+     * The name of the source, relative to the directory of the documents.
+     */
+    private final String name;
+
+    /**
+     * The name of the zip entry, or {@code null} if the source is not an entry of an archive.
+     */
+    private final String entry;
+
+    /**
+     * Whether the file is gzip compressed.
+     */
+    private final boolean gzip;
+
+    /**
+     * The number of bytes of the source on disk.
+     */
+    private final long size;
+
+    /**
+     * The modification time of the source, in milliseconds.
+     */
+    private final long lastModified;
+
+    /**
+     * The CRC-32 of the zip entry, or {@code -1} if the source is not an entry of an archive.
+     */
+    private final long crc;
+
+    /**
+     * Creates a new source.
+     *
+     * @param root         the directory of the documents.
+     * @param file         the file containing the source.
+     * @param entry        the name of the zip entry, or {@code null} if the source is not an entry of an archive.
+     * @param gzip         whether the file is gzip compressed.
+     * @param size         the number of bytes of the source on disk.
+     * @param lastModified the modification time of the source, in milliseconds.
+     * @param crc          the CRC-32 of the zip entry, or {@code -1} if the source is not an entry of an archive.
+     */
+    private DocumentSource(final Path root, final Path file, final String entry, final boolean gzip,
+                           final long size, final long lastModified, final long crc) {
+        final String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+        this.name = entry == null ? path : path + "!" + entry;
+        this.file = file;
+        this.entry = entry;
+        this.gzip = gzip;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.crc = crc;
+    }
+
+    /**
+     * Adds the sources contained in a file, if any: the file itself, if it has the given extension or it is a gzip
+     * compressed file with the given extension (e.g. {@code args.json.gz}), or the entries with the given extension,
+     * if it is a zip archive.
+     *
+     * @param root      the directory of the documents.
+     * @param file      the file.
+     * @param extension the extension of the files containing documents.
+     * @param sources   the list where to add the sources.
+     * @throws IOException if the entries of the archive cannot be listed.
+     */
+    static void list(final Path root, final Path file, final String extension, final List<DocumentSource> sources)
+            throws IOException {
+
+        final String name = file.getFileName().toString();
+
+        if (name.endsWith(extension) || name.endsWith(extension + GZIP_EXTENSION)) {
+            sources.add(new DocumentSource(root, file, null, !name.endsWith(extension), Files.size(file),
+                    Files.getLastModifiedTime(file).toMillis(), -1));
+        } else if (name.endsWith(ZIP_EXTENSION)) {
+            try (ZipFile zip = new ZipFile(file.toFile())) {
+                final Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    final ZipEntry e = entries.nextElement();
+                    if (!e.isDirectory() && e.getName().endsWith(extension)
+                            && !e.getName().startsWith(ZIP_METADATA_DIRECTORY)) {
+                        sources.add(new DocumentSource(root, file, e.getName(), false, e.getCompressedSize(),
+                                e.getTime(), e.getCrc()));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the file containing the source.
+     *
+     * @return the file containing the source.
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns whether the source is compressed, i.e. its bytes are not the ones of the file.
+     *
+     * @return whether the source is compressed.
+     */
+    boolean isCompressed() {
+        return gzip || entry != null;
+    }
+
+    /**
+     * Returns the number of bytes of the source on disk.
+     *
+     * @return the number of bytes of the source on disk.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Returns the modification time of the source.
+     *
+     * @return the modification time of the source, in milliseconds.
+     */
+    long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns a hash of the content of the source: the CRC-32 of a zip entry, already stored in the archive, or the
+     * SHA-256 of the bytes of a file.
+     *
+     * @return the hexadecimal hash of the content of the source.
+     * @throws IOException if the source cannot be read.
+     */
+    String hash() throws IOException {
+
+        if (entry != null) {
+            return String.format("crc32:%08x", crc);
+        }
+
+        final MessageDigest md = IndexFingerprint.sha256();
+
+        try (InputStream in = new MappedFileInputStream(file)) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                md.update(buffer, 0, n);
+            }
+        }
+
+        return "sha256:" + IndexFingerprint.hex(md.digest());
+    }
+
+    /**
+     * Returns the name of the source, relative to the directory of the documents, which identifies it in the index.
+     *
+     * @return the name of the source.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Opens the (decompressed) bytes of the source.
+     *
+     * @param mapped whether a file which is not compressed has to be memory-mapped.
+     * @return the bytes of the source.
+     * @throws IOException if the source cannot be opened.
+     */
+    InputStream open(final boolean mapped) throws IOException {
+
+        if (gzip) {
+            return new GZIPInputStream(Files.newInputStream(file), BUFFER_SIZE);
+        }
+
+        if (entry == null) {
+            return mapped ? new MappedFileInputStream(file) : Files.newInputStream(file);
+        }
+
+        // each entry uses its own archive, so that it can be decompressed concurrently with the other ones
+        final ZipFile zip = new ZipFile(file.toFile());
+        try {
+            return new BufferedInputStream(zip.getInputStream(zip.getEntry(entry)), BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            zip.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a parser over the bytes of a source.
+     *
+     * @param dpCls  the class of the {@code DocumentParser} to be used.
+     * @param in     the bytes of the source.
+     * @param cs     the charset of the source.
+     * @param fields the fields to be parsed.
+     * @param bytes  whether the parser has to read the bytes directly; they must be UTF-8 encoded.
+     * @return the parser.
+     */
+    static DocumentParser parser(final Class<? extends DocumentParser> dpCls, final InputStream in,
+                                 final Charset cs, final Set<String> fields, final boolean bytes) {
+        return bytes ? DocumentParser.create(dpCls, in, fields)
+                : DocumentParser.create(dpCls, new BufferedReader(new InputStreamReader(in, cs.newDecoder())),
+                fields);
+    }
+
+    @Override
+    public int compareTo(final DocumentSource other) {
+        return ORDER.compare(this, other);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
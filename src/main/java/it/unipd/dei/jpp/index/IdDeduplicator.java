@@ -0,0 +1,279 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compact, thread-safe set of the document identifiers seen so far, used to index only the first copy of each
+ * document.
+ * <p>
+ * Identifiers are not kept as {@code String}s: each one is reduced to two independent 64-bit hashes, stored in
+ * primitive arrays by open addressing (linear probing). The first hash locates the slot, the second one verifies the
+ * match, so two different identifiers are mistaken for each other only if both 64-bit hashes collide. Each identifier
+ * costs between 21 and 43 bytes, whatever its length, and no object per identifier is allocated.
+ * <p>
+ * The check is probabilistic: identifiers are never compared exactly, so if two distinct identifiers collide on both
+ * hashes the second one is taken for a duplicate and its document is not indexed, without any error. For {@code n}
+ * identifiers this happens with probability below {@code n^2 / 2^129}, about {@code 10^-28} for the 387,740 arguments
+ * of args.me; see {@link #collisionProbability()}, printed by the indexer.
+ * <p>
+ * The table is split into segments, each one locked and grown on its own, so that concurrent indexing threads rarely
+ * contend. Only the identifiers seen more than once are kept as {@code String}s, for the duplicates report.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+final class IdDeduplicator {
+
+    /**
+     * The number of bits of the hash selecting the segment.
+     */
+    private static final int SEGMENT_BITS = 6;
+
+    /**
+     * The minimum number of slots of a segment.
+     */
+    private static final int MIN_SEGMENT_SLOTS = 1024;
+
+    /**
+     * The maximum ratio of used slots after which a segment is grown.
+     */
+    private static final double LOAD_FACTOR = 0.75;
+
+    /**
+     * The segments of the table.
+     */
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    /**
+     * The number of times each identifier seen more than once has been seen.
+     */
+    private final Map<String, Integer> duplicates = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new, empty, set.
+     *
+     * @param expectedIds the number of distinct identifiers expected, used to size the table.
+     * @throws IllegalArgumentException if {@code expectedIds} is negative.
+     */
+    IdDeduplicator(final long expectedIds) {
+
+        if (expectedIds < 0) {
+            throw new IllegalArgumentException("The expected number of identifiers cannot be negative.");
+        }
+
+        final long perSegment = (long) (expectedIds / segments.length / LOAD_FACTOR) + 1;
+        final int slots = (int) Math.max(MIN_SEGMENT_SLOTS, Long.highestOneBit(Math.min(perSegment, 1 << 29)) << 1);
+
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(slots);
+        }
+    }
+
+    /**
+     * Adds an identifier to the set.
+     *
+     * @param id the identifier.
+     * @return {@code true} if the identifier was not in the set, i.e. it is the first time it is seen, up to the
+     * probability of a collision, see {@link #collisionProbability()}.
+     * @throws NullPointerException if {@code id} is {@code null}.
+     */
+    boolean add(final String id) {
+
+        if (id == null) {
+            throw new NullPointerException("Identifier cannot be null.");
+        }
+
+        // two independent hashes over the characters: FNV-1a and a polynomial one, both finalized by a mixer
+        long h1 = 0xcbf29ce484222325L;
+        long h2 = 0;
+        for (int i = 0; i < id.length(); i++) {
+            final char c = id.charAt(i);
+            h1 = (h1 ^ c) * 0x100000001b3L;
+            h2 = h2 * 0x9e3779b97f4a7c15L + c;
+        }
+        h1 = mix(h1);
+        h2 = mix(h2 ^ id.length());
+
+        // zero marks the empty slots
+        if (h1 == 0) {
+            h1 = 1;
+        }
+
+        if (segments[(int) (h1 >>> (Long.SIZE - SEGMENT_BITS))].add(h1, h2)) {
+            return true;
+        }
+
+        duplicates.merge(id, 2, (count, two) -> count + 1);
+        return false;
+    }
+
+    /**
+     * Returns the number of distinct identifiers in the set.
+     *
+     * @return the number of distinct identifiers in the set.
+     */
+    long size() {
+        long size = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                size += s.used;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns an upper bound of the probability that two of the distinct identifiers in the set have been mistaken for
+     * each other, i.e. that a distinct identifier has been taken for a duplicate.
+     *
+     * @return the probability that a distinct identifier has been taken for a duplicate.
+     */
+    double collisionProbability() {
+        final double n = size();
+        // n^2 / 2 pairs, each colliding on both 64-bit hashes with probability 2^-128
+        return Math.min(1, Math.scalb(n * n, -129));
+    }
+
+    /**
+     * Returns the number of bytes taken by the table.
+     *
+     * @return the number of bytes taken by the table.
+     */
+    long bytes() {
+        long bytes = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                bytes += 2L * Long.BYTES * s.hashes.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the identifiers seen more than once, with the number of times they have been seen.
+     *
+     * @return the identifiers seen more than once.
+     */
+    Map<String, Integer> duplicates() {
+        return Collections.unmodifiableMap(duplicates);
+    }
+
+    /**
+     * Finalizes a hash, spreading its bits (the finalizer of MurmurHash3).
+     *
+     * @param h the hash.
+     * @return the finalized hash.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * A segment of the table, guarded by its own lock.
+     */
+    private static final class Segment {
+
+        /**
+         * The first hash of the identifier in each slot, or zero if the slot is empty.
+         */
+        private long[] hashes;
+
+        /**
+         * The second hash of the identifier in each slot.
+         */
+        private long[] checks;
+
+        /**
+         * The number of used slots.
+         */
+        private int used;
+
+        /**
+         * Creates a new segment.
+         *
+         * @param slots the number of slots; it must be a power of two.
+         */
+        private Segment(final int slots) {
+            hashes = new long[slots];
+            checks = new long[slots];
+        }
+
+        /**
+         * Adds an identifier to the segment.
+         *
+         * @param h1 the first hash of the identifier, not zero.
+         * @param h2 the second hash of the identifier.
+         * @return {@code true} if the identifier was not in the segment.
+         */
+        private synchronized boolean add(final long h1, final long h2) {
+
+            final int mask = hashes.length - 1;
+            int slot = (int) h1 & mask;
+
+            while (hashes[slot] != 0) {
+                if (hashes[slot] == h1 && checks[slot] == h2) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            hashes[slot] = h1;
+            checks[slot] = h2;
+            used++;
+
+            if (used > hashes.length * LOAD_FACTOR) {
+                grow();
+            }
+            return true;
+        }
+
+        /**
+         * Doubles the number of slots of the segment.
+         */
+        private void grow() {
+
+            final long[] oldHashes = hashes;
+            final long[] oldChecks = checks;
+
+            hashes = new long[oldHashes.length << 1];
+            checks = new long[oldChecks.length << 1];
+
+            final int mask = hashes.length - 1;
+            for (int i = 0; i < oldHashes.length; i++) {
+                if (oldHashes[i] != 0) {
+                    int slot = (int) oldHashes[i] & mask;
+                    while (hashes[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    hashes[slot] = oldHashes[i];
+                    checks[slot] = oldChecks[i];
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,293 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The fingerprint of everything which determines the content of an index, stored in the user data of its commits: the
+ * schema of the documents, the parser, the analysis, the similarity and, for incremental indexing, the corpus.
+ * <p>
+ * An index can be reused, or updated incrementally, only if it was built with the same configuration. Since analyzers
+ * cannot be compared directly, the analysis of each indexed field is fingerprinted by its configuration, i.e. the
+ * classes of the tokenizer and filters of its chain and their settings, such as lengths and stop lists, and by the
+ * tokens it produces on a probe text exercising tokenization, case, possessives, repeated characters, lengths and stop
+ * words. The settings of a stage are its final fields of primitive, string, enumeration, array or set type, read by
+ * reflection, so that a change of a stop list or of a parameter which does not affect the probe text is detected
+ * too.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+final class IndexFingerprint {
+
+    /**
+     * The key of the fingerprint of the corpus in the user data of a commit.
+     */
+    static final String CORPUS = "jpp.corpus";
+
+    /**
+     * The prefix of the keys of the configuration in the user data of a commit.
+     */
+    private static final String PREFIX = "jpp.";
+
+    /**
+     * The input of a {@code TokenFilter}, i.e. the previous stage of an analysis chain.
+     */
+    private static final Field TOKEN_FILTER_INPUT;
+
+    static {
+        try {
+            TOKEN_FILTER_INPUT = TokenFilter.class.getDeclaredField("input");
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("TokenFilter has no input field.", e);
+        }
+    }
+
+    /**
+     * The text analyzed to fingerprint the analysis.
+     */
+    private static final String PROBE = "The QUICK brown fox's jumps over the lazy dogs' kennel, and it is soooo "
+            + "cooool!!! Isn’t it? a an of to in e-mail user@example.com https://www.example.org/path?q=1 "
+            + "S2b0b7c1f-A3c4e5f6 1234 3.14 café naïve Über STRASSE İstanbul "
+            + "antidisestablishmentarianism supercalifragilisticexpialidocious don't won't can't it's "
+            + "日本語 ½ #hashtag @mention ... -- \"quoted\" (parenthesized) [bracketed]";
+
+    /**
+     * This class can be neither instantiated nor sub-classed.
+     */
+    private IndexFingerprint() {
+        throw new AssertionError(String.format("No instances of %s allowed.", IndexFingerprint.class.getName()));
+    }
+
+    /**
+     * Computes the fingerprint of the configuration of an index.
+     *
+     * @param schemaVersion the version of the schema of the indexed documents.
+     * @param parser        the name of the parser and the parsed fields.
+     * @param analyzer      the analyzer used for indexing.
+     * @param analyzerName  the name of the analyzer, as given by the user.
+     * @param fields        the indexed fields.
+     * @param similarity    the similarity used for indexing.
+     * @return the fingerprint, as commit user data.
+     * @throws IOException if the probe text cannot be analyzed.
+     */
+    static Map<String, String> compute(final int schemaVersion, final String parser, final Analyzer analyzer,
+                                       final String analyzerName, final Collection<String> fields,
+                                       final Similarity similarity) throws IOException {
+
+        final MessageDigest md = sha256();
+        for (String field : new TreeSet<>(fields)) {
+            update(md, field);
+            try (TokenStream stream = analyzer.tokenStream(field, PROBE)) {
+                final CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+                final PositionIncrementAttribute posInc = stream.addAttribute(PositionIncrementAttribute.class);
+                final PositionLengthAttribute posLen = stream.addAttribute(PositionLengthAttribute.class);
+                final OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+
+                updateChain(md, stream);
+
+                stream.reset();
+                while (stream.incrementToken()) {
+                    update(md, String.format("%s/%d/%d/%d/%d", term, posInc.getPositionIncrement(),
+                            posLen.getPositionLength(), offset.startOffset(), offset.endOffset()));
+                }
+                stream.end();
+            }
+        }
+
+        final Map<String, String> fingerprint = new TreeMap<>();
+        fingerprint.put(PREFIX + "schema", Integer.toString(schemaVersion));
+        fingerprint.put(PREFIX + "parser", parser);
+        fingerprint.put(PREFIX + "analyzer", analyzerName + "/" + hex(md.digest()));
+        fingerprint.put(PREFIX + "similarity", similarity.toString());
+        return fingerprint;
+    }
+
+    /**
+     * Returns whether an index, given the user data of its last commit, was built with the given configuration.
+     *
+     * @param fingerprint the fingerprint of the configuration.
+     * @param userData    the user data of the last commit of the index.
+     * @return {@code true} if the index was built with the given configuration.
+     */
+    static boolean matches(final Map<String, String> fingerprint, final Map<String, String> userData) {
+        for (Map.Entry<String, String> e : fingerprint.entrySet()) {
+            if (!e.getValue().equals(userData.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the configuration of an analysis chain to a digest: the class and the settings of each stage, from the last
+     * filter to the tokenizer.
+     *
+     * @param md     the digest.
+     * @param stream the last stage of the chain.
+     */
+    private static void updateChain(final MessageDigest md, final TokenStream stream) {
+        TokenStream stage = stream;
+        while (stage != null) {
+            update(md, stage.getClass().getName());
+
+            for (Class<?> c = stage.getClass(); c != TokenFilter.class && c != Tokenizer.class
+                    && c != TokenStream.class && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    final int modifiers = f.getModifiers();
+                    if (Modifier.isStatic(modifiers) || !Modifier.isFinal(modifiers) || f.isSynthetic()) {
+                        continue;
+                    }
+
+                    final String setting = setting(f, stage);
+                    if (setting != null) {
+                        update(md, c.getName() + "." + f.getName() + "=" + setting);
+                    }
+                }
+            }
+
+            stage = stage instanceof TokenFilter ? (TokenStream) read(TOKEN_FILTER_INPUT, stage) : null;
+        }
+    }
+
+    /**
+     * Returns the value of a setting of a stage of an analysis chain.
+     *
+     * @param f     the field of the setting.
+     * @param stage the stage.
+     * @return the value of the setting, or {@code null} if the field is not a setting.
+     */
+    private static String setting(final Field f, final Object stage) {
+        final Class<?> type = f.getType();
+
+        if (type.isPrimitive() || type == String.class || type.isEnum() || Number.class.isAssignableFrom(type)
+                || type == Boolean.class || type == Character.class) {
+            return String.valueOf(read(f, stage));
+        }
+
+        if (type.isArray() && type.getComponentType().isPrimitive()) {
+            final Object array = read(f, stage);
+            if (array == null) {
+                return "null";
+            }
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < Array.getLength(array); i++) {
+                sb.append(Array.get(array, i)).append(',');
+            }
+            return sb.toString();
+        }
+
+        if (Set.class.isAssignableFrom(type)) {
+            // e.g. the stop list of a StopFilter, in a CharArraySet whose elements are char arrays
+            final Set<?> set = (Set<?>) read(f, stage);
+            if (set == null) {
+                return "null";
+            }
+            final TreeSet<String> elements = new TreeSet<>();
+            for (Object e : set) {
+                elements.add(e instanceof char[] ? new String((char[]) e) : String.valueOf(e));
+            }
+            final MessageDigest md = sha256();
+            for (String e : elements) {
+                update(md, e);
+            }
+            return elements.size() + "/" + hex(md.digest());
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads a field of an object, even if it is not accessible.
+     *
+     * @param f      the field.
+     * @param object the object.
+     * @return the value of the field.
+     * @throws IllegalStateException if the field cannot be read.
+     */
+    private static Object read(final Field f, final Object object) {
+        try {
+            f.setAccessible(true);
+            return f.get(object);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalStateException(String.format("Unable to read the setting %s of %s: %s.", f.getName(),
+                    object.getClass().getName(), e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Returns the hexadecimal representation of some bytes.
+     *
+     * @param bytes the bytes.
+     * @return the hexadecimal representation.
+     */
+    static String hex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a new SHA-256 digest.
+     *
+     * @return a new SHA-256 digest.
+     */
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported.", e);
+        }
+    }
+
+    /**
+     * Adds a string, followed by a separator, to a digest.
+     *
+     * @param md the digest.
+     * @param s  the string.
+     */
+    static void update(final MessageDigest md, final String s) {
+        md.update(s.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+    }
+
+}
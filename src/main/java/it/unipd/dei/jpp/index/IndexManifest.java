@@ -0,0 +1,267 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The manifest of the sources contained in an index, stored next to the index files, which allows to re-index only
+ * the sources changed since the last indexing.
+ * <p>
+ * For each source it records size, modification time and a hash of the content. A source is unchanged if it has the
+ * same size and modification time, or, failing that, the same content hash; so touching a file does not make it be
+ * re-indexed.
+ * <p>
+ * For each source it also records the identifiers of the copies of duplicate documents it holds which are not indexed
+ * from it, because the copy of a preceding source is. When the indexed copy is dropped, only the sources known to hold
+ * another copy are parsed again to recover it. The identifiers are separated by spaces, so they cannot contain any.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+final class IndexManifest {
+
+    /**
+     * The name of the manifest file within the index directory.
+     */
+    static final String FILE_NAME = "jpp-manifest.tsv";
+
+    /**
+     * The recorded state of each source, by name.
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * The recorded state of a source.
+     */
+    private static final class Entry {
+
+        /**
+         * The number of bytes of the source on disk.
+         */
+        private final long size;
+
+        /**
+         * The modification time of the source, in milliseconds.
+         */
+        private final long lastModified;
+
+        /**
+         * The hash of the content of the source.
+         */
+        private final String hash;
+
+        /**
+         * The identifiers of the copies held by the source which are not indexed from it, sorted.
+         */
+        private final Set<String> copies = new TreeSet<>();
+
+        /**
+         * Creates a new entry.
+         *
+         * @param size         the number of bytes of the source on disk.
+         * @param lastModified the modification time of the source, in milliseconds.
+         * @param hash         the hash of the content of the source.
+         */
+        private Entry(final long size, final long lastModified, final String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * Reads the manifest of an index.
+     *
+     * @param indexDir the directory of the index.
+     * @return the manifest, or {@code null} if the index has no manifest or its manifest does not record the copies
+     * held by the sources, as the ones written by earlier versions.
+     * @throws IOException if the manifest cannot be read.
+     */
+    static IndexManifest read(final Path indexDir) throws IOException {
+
+        final Path file = indexDir.resolve(FILE_NAME);
+        if (Files.notExists(file)) {
+            return null;
+        }
+
+        final IndexManifest manifest = new IndexManifest();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String[] f = line.split("\t", -1);
+                if (f.length == 4) {
+                    return null;
+                } else if (f.length != 5) {
+                    throw new IOException(String.format("Malformed line in manifest %s: %s.", file, line));
+                }
+                final Entry e = new Entry(Long.parseLong(f[1]), Long.parseLong(f[2]), f[3]);
+                if (!f[4].isEmpty()) {
+                    Collections.addAll(e.copies, f[4].split(" "));
+                }
+                manifest.entries.put(f[0], e);
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Malformed manifest %s: %s.", file, e.getMessage()), e);
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Deletes the manifest of an index, if any, so that the next incremental indexing rebuilds the whole index.
+     *
+     * @param indexDir the directory of the index.
+     * @throws IOException if the manifest cannot be deleted.
+     */
+    static void delete(final Path indexDir) throws IOException {
+        Files.deleteIfExists(indexDir.resolve(FILE_NAME));
+    }
+
+    /**
+     * Writes the manifest of an index, replacing the previous one atomically.
+     *
+     * @param indexDir the directory of the index.
+     * @throws IOException if the manifest cannot be written.
+     */
+    void write(final Path indexDir) throws IOException {
+
+        final Path tmp = Files.createTempFile(indexDir, FILE_NAME, ".tmp");
+        try {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    out.printf("%s\t%d\t%d\t%s\t%s%n", e.getKey(), e.getValue().size, e.getValue().lastModified,
+                            e.getValue().hash, String.join(" ", e.getValue().copies));
+                }
+            }
+            Files.move(tmp, indexDir.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Records the current state of a source.
+     *
+     * @param name   the name of the source.
+     * @param source the source.
+     * @throws IOException if the source cannot be hashed.
+     */
+    void record(final String name, final DocumentSource source) throws IOException {
+        entries.put(name, new Entry(source.size(), source.lastModified(), source.hash()));
+    }
+
+    /**
+     * Records the state of a source unless it is unchanged with respect to the given previous manifest; in that case
+     * the previous state, with the copies held by the source, is copied over.
+     *
+     * @param name     the name of the source.
+     * @param source   the source.
+     * @param previous the previous manifest.
+     * @return {@code true} if the source is new or changed.
+     * @throws IOException if the source cannot be hashed.
+     */
+    boolean recordIfChanged(final String name, final DocumentSource source, final IndexManifest previous)
+            throws IOException {
+
+        final Entry old = previous.entries.get(name);
+
+        if (old != null && old.size == source.size() && old.lastModified == source.lastModified()) {
+            entries.put(name, old);
+            return false;
+        }
+
+        record(name, source);
+        if (old == null || !old.hash.equals(entries.get(name).hash)) {
+            return true;
+        }
+
+        entries.get(name).copies.addAll(old.copies);
+        return false;
+    }
+
+    /**
+     * Records that a source holds a copy of a document which is not indexed from it.
+     *
+     * @param name the name of the source.
+     * @param id   the identifier of the document.
+     */
+    void addCopy(final String name, final String id) {
+        entries.get(name).copies.add(id);
+    }
+
+    /**
+     * Records that a copy of a document held by a source is now indexed from it.
+     *
+     * @param name the name of the source.
+     * @param id   the identifier of the document.
+     */
+    void removeCopy(final String name, final String id) {
+        entries.get(name).copies.remove(id);
+    }
+
+    /**
+     * Returns the identifiers of the copies held by a source which are not indexed from it.
+     *
+     * @param name the name of the source.
+     * @return the identifiers of the copies held by the source which are not indexed from it.
+     */
+    Set<String> copies(final String name) {
+        return Collections.unmodifiableSet(entries.get(name).copies);
+    }
+
+    /**
+     * Returns a digest of the recorded sources, i.e. of their names, sizes and content hashes, which fingerprints the
+     * indexed corpus. Modification times are left out, so that touching a file does not change the digest.
+     *
+     * @return the hexadecimal digest of the recorded sources.
+     */
+    String digest() {
+        final MessageDigest md = IndexFingerprint.sha256();
+        for (Map.Entry<String, Entry> e : new TreeMap<>(entries).entrySet()) {
+            IndexFingerprint.update(md, e.getKey());
+            IndexFingerprint.update(md, Long.toString(e.getValue().size));
+            IndexFingerprint.update(md, e.getValue().hash);
+        }
+        return IndexFingerprint.hex(md.digest());
+    }
+
+    /**
+     * Returns the names of the recorded sources.
+     *
+     * @return the names of the recorded sources.
+     */
+    Set<String> names() {
+        return entries.keySet();
+    }
+
+}
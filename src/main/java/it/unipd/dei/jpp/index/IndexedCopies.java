@@ -0,0 +1,221 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import it.unipd.dei.jpp.parse.ParsedDocument;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The copies of the documents in the last committed index, with the sources they were indexed from, used by the
+ * incremental indexing to keep the same copy of each duplicate document as a full rebuild.
+ * <p>
+ * A full rebuild indexes the first copy of each document, in source order. When only some sources are indexed again,
+ * a document of theirs is then indexed only if no unchanged source preceding it already holds a copy, and the
+ * documents of the dropped sources are recovered from the unchanged sources if they are not indexed again.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+final class IndexedCopies implements Closeable {
+
+    /**
+     * Marks a document which is deleted or whose source is dropped.
+     */
+    private static final int DROPPED = -1;
+
+    /**
+     * The reader of the last committed index.
+     */
+    private final IndexReader reader;
+
+    /**
+     * The rank of the source of each document of each segment, or {@link #DROPPED}.
+     */
+    private final int[][] sources;
+
+    /**
+     * Creates the copies of the documents of a committed index.
+     *
+     * @param reader  the reader of the last committed index, closed with this object.
+     * @param ranks   the rank of each source in indexing order.
+     * @param dropped the names of the sources whose documents are deleted from the index.
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    IndexedCopies(final IndexReader reader, final Map<String, Integer> ranks, final Set<String> dropped)
+            throws IOException {
+
+        this.reader = reader;
+
+        final List<LeafReaderContext> leaves = reader.leaves();
+        sources = new int[leaves.size()][];
+
+        for (LeafReaderContext leaf : leaves) {
+            final int[] s = new int[leaf.reader().maxDoc()];
+            Arrays.fill(s, DROPPED);
+            sources[leaf.ord] = s;
+
+            final Terms terms = leaf.reader().terms(ParsedDocument.FIELDS.SOURCE_FILE);
+            if (terms == null) {
+                continue;
+            }
+
+            final Bits live = leaf.reader().getLiveDocs();
+            final TermsEnum te = terms.iterator();
+            PostingsEnum pe = null;
+            BytesRef name;
+            while ((name = te.next()) != null) {
+                final String source = name.utf8ToString();
+                final Integer rank = ranks.get(source);
+                if (rank == null || dropped.contains(source)) {
+                    continue;
+                }
+
+                pe = te.postings(pe, PostingsEnum.NONE);
+                for (int doc = pe.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = pe.nextDoc()) {
+                    if (live == null || live.get(doc)) {
+                        s[doc] = rank;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the rank of the unchanged source holding the indexed copy of a document.
+     *
+     * @param id the identifier of the document.
+     * @return the rank of the source holding its indexed copy, or {@code -1} if it is not indexed or it is indexed from
+     * a dropped source.
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    int sourceOf(final String id) throws IOException {
+
+        final BytesRef term = new BytesRef(id);
+
+        for (LeafReaderContext leaf : reader.leaves()) {
+            final int doc = find(leaf.reader(), term);
+            if (doc != DocIdSetIterator.NO_MORE_DOCS && sources[leaf.ord][doc] != DROPPED) {
+                return sources[leaf.ord][doc];
+            }
+        }
+
+        return DROPPED;
+    }
+
+    /**
+     * Returns the identifiers of the live documents indexed from the dropped sources.
+     *
+     * @return the identifiers of the documents indexed from the dropped sources.
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    Set<String> droppedIds() throws IOException {
+
+        final Set<String> ids = new HashSet<>();
+
+        for (LeafReaderContext leaf : reader.leaves()) {
+            final Bits live = leaf.reader().getLiveDocs();
+            final int[] s = sources[leaf.ord];
+            final SortedDocValues values = DocValues.getSorted(leaf.reader(), ParsedDocument.FIELDS.ID);
+
+            for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+                if (s[doc] == DROPPED && (live == null || live.get(doc))) {
+                    ids.add(values.lookupOrd(values.ordValue()).utf8ToString());
+                }
+            }
+        }
+
+        return ids;
+    }
+
+    /**
+     * Returns whether an index holds a live copy of a document.
+     *
+     * @param reader the reader of the index.
+     * @param id     the identifier of the document.
+     * @return {@code true} if the index holds a live copy of the document.
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    static boolean contains(final IndexReader reader, final String id) throws IOException {
+
+        final BytesRef term = new BytesRef(id);
+
+        for (LeafReaderContext leaf : reader.leaves()) {
+            if (find(leaf.reader(), term) != DocIdSetIterator.NO_MORE_DOCS) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the live document of a segment with the given identifier.
+     *
+     * @param leaf the segment.
+     * @param id   the identifier of the document.
+     * @return the document, or {@link DocIdSetIterator#NO_MORE_DOCS} if there is none.
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    private static int find(final LeafReader leaf, final BytesRef id) throws IOException {
+
+        final Terms terms = leaf.terms(ParsedDocument.FIELDS.ID);
+        if (terms == null) {
+            return DocIdSetIterator.NO_MORE_DOCS;
+        }
+
+        // a new enumeration for each lookup, so that the lookups can run concurrently
+        final TermsEnum te = terms.iterator();
+        if (!te.seekExact(id)) {
+            return DocIdSetIterator.NO_MORE_DOCS;
+        }
+
+        final Bits live = leaf.getLiveDocs();
+        final PostingsEnum pe = te.postings(null, PostingsEnum.NONE);
+        for (int doc = pe.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = pe.nextDoc()) {
+            if (live == null || live.get(doc)) {
+                return doc;
+            }
+        }
+
+        return DocIdSetIterator.NO_MORE_DOCS;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
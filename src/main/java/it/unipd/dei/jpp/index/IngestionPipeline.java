@@ -0,0 +1,736 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import it.unipd.dei.jpp.parse.DocumentParser;
+import it.unipd.dei.jpp.parse.ParsedDocument;
+import org.apache.lucene.document.Document;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ingests files through five stages, each one running on its own threads: <em>read</em> (raw bytes from disk,
+ * decompressed if needed), <em>parse</em> (bytes to {@link ParsedDocument}s), <em>dedup</em> (the choice of the
+ * {@link ParsedDocument}s to be indexed), <em>build</em> ({@link ParsedDocument}s to {@link Document}s) and
+ * <em>write</em> ({@link Document}s to the index).
+ * <p>
+ * Files are read and parsed concurrently, but the dedup stage runs on a single thread and gets the parsed documents in
+ * source order, file after file, so that the choice of the documents to be indexed, e.g. the first copy of a duplicate
+ * document, is the same as when indexing sequentially, whatever the number of threads. The documents chosen are then
+ * built and written concurrently: with more than one build or write thread the order of the documents in the index
+ * depends on the scheduling of the threads.
+ * <p>
+ * Stages are connected by bounded queues, so a slow stage makes the upstream ones block instead of buffering the
+ * whole corpus in memory. For each stage the pipeline measures the time spent working and waiting for input and
+ * output, together with the depth of its input queue, so that the bottleneck can be spotted.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+final class IngestionPipeline {
+
+    /**
+     * Opens a {@code DocumentParser} over the bytes of a source.
+     */
+    @FunctionalInterface
+    interface ParserFactory {
+
+        /**
+         * Opens a parser.
+         *
+         * @param source the source being parsed.
+         * @param in     the (decompressed) bytes of the source.
+         * @return the parser.
+         * @throws IOException if the parser cannot be created.
+         */
+        DocumentParser open(DocumentSource source, InputStream in) throws IOException;
+    }
+
+    /**
+     * Chooses the {@code ParsedDocument}s to be indexed. It is invoked by a single thread, in source order.
+     */
+    @FunctionalInterface
+    interface DocumentFilter {
+
+        /**
+         * Returns whether a document has to be indexed.
+         *
+         * @param source the source the document was parsed from.
+         * @param pd     the parsed document.
+         * @return {@code true} if the document has to be built and written.
+         * @throws IOException if something goes wrong while choosing the document.
+         */
+        boolean accept(DocumentSource source, ParsedDocument pd) throws IOException;
+    }
+
+    /**
+     * Turns a {@code ParsedDocument} into a {@code Document}.
+     */
+    @FunctionalInterface
+    interface DocumentBuilder {
+
+        /**
+         * Builds a document.
+         *
+         * @param source the source the document was parsed from.
+         * @param pd     the parsed document.
+         * @return the document to be written, or {@code null} if it has to be discarded.
+         * @throws IOException if something goes wrong while building the document.
+         */
+        Document build(DocumentSource source, ParsedDocument pd) throws IOException;
+    }
+
+    /**
+     * Writes a {@code Document} to the index.
+     */
+    @FunctionalInterface
+    interface DocumentWriter {
+
+        /**
+         * Writes a document.
+         *
+         * @param doc the document.
+         * @throws IOException if something goes wrong while writing the document.
+         */
+        void write(Document doc) throws IOException;
+    }
+
+    /**
+     * The size of the blocks read from disk.
+     */
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * The number of blocks which can be buffered for each file being read.
+     */
+    private static final int BLOCKS_PER_FILE = 8;
+
+    /**
+     * Marks the end of the blocks of a file.
+     */
+    private static final ByteBuffer EOF = ByteBuffer.allocate(0);
+
+    /**
+     * Marks the end of the files to be parsed.
+     */
+    private static final BlockInputStream NO_MORE_FILES = new BlockInputStream(null, null, 1);
+
+    /**
+     * Marks the end of the documents parsed from a source.
+     */
+    private static final ParsedDocument END_OF_SOURCE = new ParsedDocument(null);
+
+    /**
+     * Marks the end of the documents to be built.
+     */
+    private static final Parsed NO_MORE_PARSED = new Parsed(null, null);
+
+    /**
+     * Marks the end of the documents to be written.
+     */
+    private static final Document NO_MORE_DOCUMENTS = new Document();
+
+    /**
+     * The read stage.
+     */
+    private final Stage read;
+
+    /**
+     * The parse stage.
+     */
+    private final Stage parse;
+
+    /**
+     * The dedup stage.
+     */
+    private final Stage dedup;
+
+    /**
+     * The build stage.
+     */
+    private final Stage build;
+
+    /**
+     * The write stage.
+     */
+    private final Stage write;
+
+    /**
+     * The capacity of the queues between parse, dedup, build and write stages.
+     */
+    private final int queueCapacity;
+
+    /**
+     * The first error raised by any stage.
+     */
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Creates a new pipeline.
+     *
+     * @param readThreads   the number of threads reading files.
+     * @param parseThreads  the number of threads parsing files.
+     * @param buildThreads  the number of threads building documents.
+     * @param writeThreads  the number of threads writing documents.
+     * @param queueCapacity the capacity of the queues between parse, dedup, build and write stages.
+     * @throws IllegalArgumentException if any of the parameters is less than or equal to zero.
+     */
+    IngestionPipeline(final int readThreads, final int parseThreads, final int buildThreads,
+                      final int writeThreads, final int queueCapacity) {
+
+        if (readThreads <= 0 || parseThreads <= 0 || buildThreads <= 0 || writeThreads <= 0) {
+            throw new IllegalArgumentException("The number of threads of a stage cannot be less than or equal to zero.");
+        }
+
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("The capacity of the queues cannot be less than or equal to zero.");
+        }
+
+        this.read = new Stage("read", readThreads, 0);
+        this.parse = new Stage("parse", parseThreads, parseThreads);
+        this.dedup = new Stage("dedup", 1, queueCapacity);
+        this.build = new Stage("build", buildThreads, queueCapacity);
+        this.write = new Stage("write", writeThreads, queueCapacity);
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Runs the pipeline until all the sources have been ingested.
+     *
+     * @param sources the sources to be ingested.
+     * @param mapped  whether files which are not compressed are memory-mapped instead of read; the read stage then
+     *                only maps the blocks and loads their pages, and the parse stage gets them without any copy.
+     * @param parsers the factory of the parsers for the sources.
+     * @param filter  the filter choosing the documents to be indexed.
+     * @param builder the builder of the documents.
+     * @param writer  the writer of the documents.
+     * @throws IOException if any of the stages fails.
+     */
+    void run(final List<DocumentSource> sources, final boolean mapped, final ParserFactory parsers,
+             final DocumentFilter filter, final DocumentBuilder builder, final DocumentWriter writer)
+            throws IOException {
+
+        final Queue<DocumentSource> toRead = new LinkedList<>(sources);
+        final BlockingQueue<BlockInputStream> toParse = new ArrayBlockingQueue<>(parse.threads);
+        final BlockingQueue<BlockInputStream> toDedup = new LinkedBlockingQueue<>();
+        final BlockingQueue<Parsed> toBuild = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<Document> toWrite = new ArrayBlockingQueue<>(queueCapacity);
+
+        final ExecutorService pool = Executors.newFixedThreadPool(
+                read.threads + parse.threads + dedup.threads + build.threads + write.threads);
+
+        read.capacity = sources.size();
+
+        for (int i = 0; i < read.threads; i++) {
+            pool.execute(() -> work(read, toParse, NO_MORE_FILES, parse.threads, () -> {
+                while (true) {
+                    final BlockInputStream in;
+
+                    // the sources are handed over to the parse and dedup stages in order, so that the parsing of a
+                    // source always starts before the parsing of the following ones, which the dedup stage waits for
+                    synchronized (toRead) {
+                        final DocumentSource source = toRead.poll();
+                        if (source == null) {
+                            break;
+                        }
+                        read.sample(toRead.size());
+
+                        in = new BlockInputStream(source, parse, queueCapacity);
+                        read.outputWait.add(put(toParse, in, parse));
+                        toDedup.add(in);
+                    }
+                    final DocumentSource source = in.source;
+
+                    // compressed sources are decompressed here, so that several read threads inflate them in parallel
+                    try (ReadableByteChannel ch = source.isCompressed() ? Channels.newChannel(source.open(false))
+                            : FileChannel.open(source.getFile(), StandardOpenOption.READ)) {
+                        if (mapped && ch instanceof FileChannel) {
+                            final FileChannel fc = (FileChannel) ch;
+                            final long size = fc.size();
+                            for (long position = 0; position < size; position += BLOCK_SIZE) {
+                                final MappedByteBuffer block = fc.map(FileChannel.MapMode.READ_ONLY, position,
+                                        Math.min(BLOCK_SIZE, size - position));
+                                // fault the pages in here, so that the parse stage does not wait for the disk
+                                block.load();
+                                read.items.increment();
+                                read.outputWait.add(put(in.blocks, block, null));
+                            }
+                        } else {
+                            while (true) {
+                                final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+                                if (ch.read(block) < 0) {
+                                    break;
+                                }
+                                block.flip();
+                                read.items.increment();
+                                read.outputWait.add(put(in.blocks, block, null));
+                            }
+                        }
+                    } catch (IOException e) {
+                        in.fail(e);
+                        throw e;
+                    }
+                    read.outputWait.add(put(in.blocks, EOF, null));
+                }
+            }));
+        }
+
+        for (int i = 0; i < parse.threads; i++) {
+            pool.execute(() -> work(parse, null, null, 0, () -> {
+                BlockInputStream in;
+                while ((in = take(toParse, parse)) != NO_MORE_FILES) {
+                    for (ParsedDocument pd : parsers.open(in.source, in)) {
+                        parse.items.increment();
+                        parse.outputWait.add(put(in.parsed, pd, dedup));
+                    }
+                    parse.outputWait.add(put(in.parsed, END_OF_SOURCE, null));
+                    // let the reader of the file run to completion even if the parser stopped early
+                    in.drain();
+                }
+            }));
+        }
+
+        pool.execute(() -> work(dedup, toBuild, NO_MORE_PARSED, build.threads, () -> {
+            for (int s = 0; s < sources.size(); s++) {
+                final BlockInputStream in = toDedup.take();
+                ParsedDocument pd;
+                while ((pd = take(in.parsed, dedup)) != END_OF_SOURCE) {
+                    if (filter.accept(in.source, pd)) {
+                        dedup.items.increment();
+                        dedup.outputWait.add(put(toBuild, new Parsed(in.source, pd), build));
+                    }
+                }
+            }
+        }));
+
+        for (int i = 0; i < build.threads; i++) {
+            pool.execute(() -> work(build, toWrite, NO_MORE_DOCUMENTS, write.threads, () -> {
+                Parsed p;
+                while ((p = take(toBuild, build)) != NO_MORE_PARSED) {
+                    final Document doc = builder.build(p.source, p.pd);
+                    if (doc != null) {
+                        build.items.increment();
+                        build.outputWait.add(put(toWrite, doc, write));
+                    }
+                }
+            }));
+        }
+
+        for (int i = 0; i < write.threads; i++) {
+            pool.execute(() -> work(write, null, null, 0, () -> {
+                Document doc;
+                while ((doc = take(toWrite, write)) != NO_MORE_DOCUMENTS) {
+                    writer.write(doc);
+                    write.items.increment();
+                }
+            }));
+        }
+
+        pool.shutdown();
+
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                if (failure.get() != null) {
+                    pool.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing.", e);
+        }
+
+        final Throwable t = failure.get();
+        if (t != null) {
+            if (t instanceof IOException) {
+                throw (IOException) t;
+            }
+            throw new IOException(String.format("Unable to index documents: %s.", t.getMessage()), t);
+        }
+    }
+
+    /**
+     * Prints, for each stage, how its time was spent and how full its input queue was. The input of the read stage
+     * are the files still to be read, the one of the parse stage are the files being read but not yet parsed, the one
+     * of the dedup stage are the documents parsed from a file but not yet deduplicated.
+     */
+    void printStats() {
+        System.out.printf("%-6s %8s %10s %8s %8s %8s %10s %10s%n", "stage", "threads", "items", "busy", "in-wait",
+                "out-wait", "avg-queue", "max-queue");
+        for (Stage s : new Stage[]{read, parse, dedup, build, write}) {
+            System.out.println(s);
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the current depth of the queues.
+     *
+     * @return a one-line summary of the current depth of the queues.
+     */
+    String queueDepths() {
+        return String.format(Locale.ENGLISH, "queues: parse %d/%d, dedup %d/%d, build %d/%d, write %d/%d",
+                parse.depth.get(), parse.capacity, dedup.depth.get(), dedup.capacity, build.depth.get(),
+                build.capacity, write.depth.get(), write.capacity);
+    }
+
+    /**
+     * Runs the body of a worker of a stage, accounting its time and, once the last worker of the stage is done,
+     * telling the workers of the next stage that no more items will come.
+     *
+     * @param stage           the stage of the worker.
+     * @param out             the output queue of the stage, {@code null} for the last one.
+     * @param pill            the item marking the end of the output.
+     * @param downstreamCount the number of workers of the next stage.
+     * @param body            the work to be done.
+     * @param <O>             the type of the output items.
+     */
+    private <O> void work(final Stage stage, final BlockingQueue<O> out, final O pill, final int downstreamCount,
+                          final Body body) {
+        final long begin = System.nanoTime();
+        try {
+            body.run();
+        } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+        } finally {
+            stage.wall.add(System.nanoTime() - begin);
+            if (stage.running.decrementAndGet() == 0 && out != null && failure.get() == null) {
+                try {
+                    for (int i = 0; i < downstreamCount; i++) {
+                        out.put(pill);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts an item in a queue, recording the depth of the queue.
+     *
+     * @param queue the queue.
+     * @param item  the item.
+     * @param owner the stage consuming the queue, if its depth has to be recorded.
+     * @param <T>   the type of the items.
+     * @return the nanoseconds spent waiting for room in the queue.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static <T> long put(final BlockingQueue<T> queue, final T item, final Stage owner)
+            throws InterruptedException {
+        final long begin = System.nanoTime();
+        queue.put(item);
+        final long waited = System.nanoTime() - begin;
+        if (owner != null) {
+            owner.sample(queue.size());
+        }
+        return waited;
+    }
+
+    /**
+     * Takes an item from a queue, recording the time spent waiting for it.
+     *
+     * @param queue the queue.
+     * @param stage the stage consuming the queue.
+     * @param <T>   the type of the items.
+     * @return the item.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static <T> T take(final BlockingQueue<T> queue, final Stage stage) throws InterruptedException {
+        final long begin = System.nanoTime();
+        final T item = queue.take();
+        stage.inputWait.add(System.nanoTime() - begin);
+        return item;
+    }
+
+    /**
+     * The work done by a worker.
+     */
+    @FunctionalInterface
+    private interface Body {
+
+        /**
+         * Does the work.
+         *
+         * @throws Exception if anything goes wrong.
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * The configuration and statistics of a stage.
+     */
+    private static final class Stage {
+
+        /**
+         * The name of the stage.
+         */
+        private final String name;
+
+        /**
+         * The number of threads of the stage.
+         */
+        private final int threads;
+
+        /**
+         * The capacity of the input queue of the stage.
+         */
+        private int capacity;
+
+        /**
+         * The number of workers still running.
+         */
+        private final AtomicInteger running;
+
+        /**
+         * The number of items produced.
+         */
+        private final LongAdder items = new LongAdder();
+
+        /**
+         * The total wall time of the workers, in nanoseconds.
+         */
+        private final LongAdder wall = new LongAdder();
+
+        /**
+         * The time spent waiting for input, in nanoseconds.
+         */
+        private final LongAdder inputWait = new LongAdder();
+
+        /**
+         * The time spent waiting for room in the output queue, in nanoseconds.
+         */
+        private final LongAdder outputWait = new LongAdder();
+
+        /**
+         * The last sampled depth of the input queue.
+         */
+        private final AtomicInteger depth = new AtomicInteger();
+
+        /**
+         * The maximum sampled depth of the input queue.
+         */
+        private final AtomicInteger maxDepth = new AtomicInteger();
+
+        /**
+         * The sum of the sampled depths of the input queue.
+         */
+        private final LongAdder depthSum = new LongAdder();
+
+        /**
+         * The number of samples of the depth of the input queue.
+         */
+        private final LongAdder depthSamples = new LongAdder();
+
+        /**
+         * Creates a new stage.
+         *
+         * @param name     the name of the stage.
+         * @param threads  the number of threads of the stage.
+         * @param capacity the capacity of the input queue of the stage.
+         */
+        private Stage(final String name, final int threads, final int capacity) {
+            this.name = name;
+            this.threads = threads;
+            this.capacity = capacity;
+            this.running = new AtomicInteger(threads);
+        }
+
+        /**
+         * Records the depth of the input queue.
+         *
+         * @param size the current depth.
+         */
+        private void sample(final int size) {
+            depth.set(size);
+            maxDepth.accumulateAndGet(size, Math::max);
+            depthSum.add(size);
+            depthSamples.increment();
+        }
+
+        @Override
+        public String toString() {
+            final double total = Math.max(1, wall.sum());
+            final long in = inputWait.sum();
+            final long out = outputWait.sum();
+            final long samples = depthSamples.sum();
+
+            return String.format(Locale.ENGLISH, "%-6s %8d %10d %7.1f%% %7.1f%% %7.1f%% %10.1f %6d/%-3d",
+                    name, threads, items.sum(), 100 * (total - in - out) / total, 100 * in / total,
+                    100 * out / total, samples == 0 ? 0 : (double) depthSum.sum() / samples, maxDepth.get(),
+                    capacity);
+        }
+    }
+
+    /**
+     * A parsed document, together with the source it was parsed from.
+     */
+    private static final class Parsed {
+
+        /**
+         * The source the document was parsed from.
+         */
+        private final DocumentSource source;
+
+        /**
+         * The parsed document.
+         */
+        private final ParsedDocument pd;
+
+        /**
+         * Creates a new parsed document.
+         *
+         * @param source the source the document was parsed from.
+         * @param pd     the parsed document.
+         */
+        private Parsed(final DocumentSource source, final ParsedDocument pd) {
+            this.source = source;
+            this.pd = pd;
+        }
+    }
+
+    /**
+     * An {@code InputStream} over the blocks of a file produced by the read stage.
+     */
+    private static final class BlockInputStream extends InputStream {
+
+        /**
+         * The blocks read from the file.
+         */
+        private final BlockingQueue<ByteBuffer> blocks = new ArrayBlockingQueue<>(BLOCKS_PER_FILE);
+
+        /**
+         * The documents parsed from the file, to be deduplicated in order.
+         */
+        private final BlockingQueue<ParsedDocument> parsed;
+
+        /**
+         * The stage consuming this stream, charged with the time spent waiting for blocks.
+         */
+        private final Stage consumer;
+
+        /**
+         * The source being read.
+         */
+        private final DocumentSource source;
+
+        /**
+         * The error raised while reading the file.
+         */
+        private volatile IOException error;
+
+        /**
+         * The block currently being consumed.
+         */
+        private ByteBuffer current = ByteBuffer.allocate(0);
+
+        /**
+         * Creates a new stream.
+         *
+         * @param source         the source being read.
+         * @param consumer       the stage consuming this stream.
+         * @param parsedCapacity the number of documents which can be parsed from the file ahead of the dedup stage.
+         */
+        private BlockInputStream(final DocumentSource source, final Stage consumer, final int parsedCapacity) {
+            this.source = source;
+            this.consumer = consumer;
+            this.parsed = new ArrayBlockingQueue<>(parsedCapacity);
+        }
+
+        /**
+         * Consumes all the remaining blocks of the file.
+         *
+         * @throws IOException if the file could not be read.
+         */
+        private void drain() throws IOException {
+            while (fill()) {
+                current.position(current.limit());
+            }
+        }
+
+        /**
+         * Makes the consumer of the stream fail with the given error.
+         *
+         * @param e the error.
+         */
+        private void fail(final IOException e) {
+            error = e;
+            blocks.offer(EOF);
+        }
+
+        /**
+         * Moves to the next block, if the current one is exhausted.
+         *
+         * @return {@code false} if there are no more blocks.
+         * @throws IOException if the file could not be read.
+         */
+        private boolean fill() throws IOException {
+            if (current == EOF) {
+                return false;
+            }
+            while (!current.hasRemaining()) {
+                try {
+                    current = take(blocks, consumer);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading.", e);
+                }
+                if (error != null) {
+                    throw error;
+                }
+                if (current == EOF) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? current.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            final int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+    }
+
+}
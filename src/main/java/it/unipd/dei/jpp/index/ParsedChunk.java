@@ -0,0 +1,228 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import it.unipd.dei.jpp.parse.DocumentParser;
+import it.unipd.dei.jpp.parse.ParsedDocument;
+import it.unipd.dei.jpp.utils.MappedFileInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A chunk of a source to be parsed on its own, either a range of whole arguments or the whole source.
+ * <p>
+ * The parsed documents are handed over in batches through a bounded queue, so that the parsing of a chunk can run
+ * ahead of its consumer without keeping all its documents in memory.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+final class ParsedChunk {
+
+    /**
+     * Marks the end of the chunks.
+     */
+    static final ParsedChunk END = new ParsedChunk(null, 0, -1);
+
+    /**
+     * Marks the end of the documents of a chunk.
+     */
+    static final List<ParsedDocument> NO_MORE_DOCUMENTS = List.of();
+
+    /**
+     * The number of documents in a batch.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * The number of batches which can be parsed ahead of the consumer.
+     */
+    private static final int BATCHES = 4;
+
+    /**
+     * The byte opening the array wrapping a mapped chunk.
+     */
+    private static final byte[] OPEN_ARRAY = {'['};
+
+    /**
+     * The byte closing the array wrapping a mapped chunk.
+     */
+    private static final byte[] CLOSE_ARRAY = {']'};
+
+    /**
+     * The source containing the chunk.
+     */
+    private final DocumentSource source;
+
+    /**
+     * The offset of the first byte of the chunk.
+     */
+    private final long start;
+
+    /**
+     * The offset following the last byte of the chunk, or {@code -1} if the chunk is the whole source.
+     */
+    private final long end;
+
+    /**
+     * The batches of parsed documents.
+     */
+    private final BlockingQueue<List<ParsedDocument>> batches = new ArrayBlockingQueue<>(BATCHES);
+
+    /**
+     * The error raised while parsing, if any.
+     */
+    private volatile Throwable error;
+
+    /**
+     * Creates a new chunk.
+     *
+     * @param source the source containing the chunk.
+     * @param start  the offset of the first byte of the chunk.
+     * @param end    the offset following the last byte of the chunk, or {@code -1} if the chunk is the whole source.
+     *               Only sources which are not compressed can be split.
+     */
+    ParsedChunk(final DocumentSource source, final long start, final long end) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Returns the source containing the chunk.
+     *
+     * @return the source containing the chunk.
+     */
+    DocumentSource getSource() {
+        return source;
+    }
+
+    /**
+     * Parses the chunk, handing over the documents in batches.
+     *
+     * @param dpCls  the class of the {@code DocumentParser} to be used.
+     * @param cs     the charset of the source.
+     * @param fields the fields to be parsed.
+     * @param mapped whether the source is parsed as bytes and, if not compressed, memory-mapped; it must be UTF-8
+     *               encoded.
+     */
+    void parse(final Class<? extends DocumentParser> dpCls, final Charset cs, final Set<String> fields,
+               final boolean mapped) {
+        // the stream is closed also when the parsing fails half-way
+        try (InputStream in = open(mapped)) {
+            final DocumentParser dp = end < 0 ? DocumentSource.parser(dpCls, in, cs, fields, mapped)
+                    : DocumentParser.create(dpCls, in, fields);
+
+            List<ParsedDocument> batch = new ArrayList<>(BATCH_SIZE);
+            for (ParsedDocument pd : dp) {
+                batch.add(pd);
+                if (batch.size() == BATCH_SIZE) {
+                    batches.put(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.put(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = e;
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            try {
+                batches.put(NO_MORE_DOCUMENTS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the next batch of parsed documents, waiting for it to be parsed.
+     *
+     * @return the next batch of parsed documents, or {@link #NO_MORE_DOCUMENTS} if the chunk has been fully parsed.
+     * @throws IOException          if the chunk could not be parsed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    List<ParsedDocument> take() throws IOException, InterruptedException {
+        final List<ParsedDocument> batch = batches.take();
+        if (batch == NO_MORE_DOCUMENTS && error != null) {
+            throw new IOException(String.format("Unable to parse bytes %d-%d of %s: %s.", start, end, source,
+                    error.getMessage()), error);
+        }
+        return batch;
+    }
+
+    /**
+     * Opens the chunk: the whole source or the bytes of the chunk, wrapped between square brackets so that they make
+     * up a JSON array.
+     *
+     * @param mapped whether the chunk is memory-mapped.
+     * @return the stream of the chunk.
+     * @throws IOException if something goes wrong while opening or reading the file.
+     */
+    private InputStream open(final boolean mapped) throws IOException {
+        if (end < 0) {
+            return source.open(mapped);
+        } else if (mapped) {
+            return new SequenceInputStream(Collections.enumeration(List.of(new ByteArrayInputStream(OPEN_ARRAY),
+                    new MappedFileInputStream(source.getFile(), start, end), new ByteArrayInputStream(CLOSE_ARRAY))));
+        }
+        return new ByteArrayInputStream(read());
+    }
+
+    /**
+     * Reads the bytes of the chunk, wrapped between square brackets so that they make up a JSON array.
+     *
+     * @return the bytes of the chunk.
+     * @throws IOException if something goes wrong while reading the file.
+     */
+    private byte[] read() throws IOException {
+        final int length = Math.toIntExact(end - start);
+        final byte[] bytes = new byte[length + 2];
+        bytes[0] = '[';
+        bytes[length + 1] = ']';
+
+        try (FileChannel ch = FileChannel.open(source.getFile(), StandardOpenOption.READ)) {
+            final ByteBuffer buf = ByteBuffer.wrap(bytes, 1, length);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, start + buf.position() - 1) < 0) {
+                    throw new EOFException(String.format("File %s ended before byte %d.", source, end));
+                }
+            }
+        }
+
+        return bytes;
+    }
+
+}
@@ -16,10 +16,12 @@
 
 package it.unipd.dei.jpp.parse;
 
-import java.io.IOException;
-import java.io.Reader;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * Represents a document parser.
@@ -37,27 +39,99 @@ public abstract class DocumentParser
     protected final boolean next = true;
 
     /**
-     * The reader to be used to parse document(s).
+     * The reader or input stream to be used to parse document(s).
      */
-    protected final Reader in;
+    protected final Closeable in;
 
+    /**
+     * The fields of the {@code ParsedDocument}s to be filled. The values of the other fields should be skipped
+     * without being decoded.
+     */
+    protected final Set<String> fields;
 
     /**
-     * Creates a new document parser.
+     * Whether the same {@code ParsedDocument} can be reset and filled again for each parsed document.
+     */
+    protected boolean reuseDocuments = false;
+
+
+    /**
+     * Creates a new document parser which fills all the fields of the parsed documents.
      *
      * @param in the reader to the document(s) to be parsed.
      * @throws NullPointerException if {@code in} is {@code null}.
      */
     protected DocumentParser(final Reader in) {
+        this(in, ParsedDocument.PARSED_FIELDS);
+    }
+
+    /**
+     * Creates a new document parser which fills only the given fields of the parsed documents. The identifier is
+     * always filled.
+     *
+     * @param in     the reader to the document(s) to be parsed.
+     * @param fields the fields to be filled, among {@link ParsedDocument#PARSED_FIELDS}.
+     * @throws NullPointerException     if {@code in} and/or {@code fields} are {@code null}.
+     * @throws IllegalArgumentException if {@code fields} contains unknown fields.
+     */
+    protected DocumentParser(final Reader in, final Set<String> fields) {
+        this((Closeable) in, fields);
+    }
+
+    /**
+     * Creates a new document parser reading UTF-8 encoded bytes, which fills only the given fields of the parsed
+     * documents. The identifier is always filled.
+     *
+     * @param in     the input stream to the document(s) to be parsed.
+     * @param fields the fields to be filled, among {@link ParsedDocument#PARSED_FIELDS}.
+     * @throws NullPointerException     if {@code in} and/or {@code fields} are {@code null}.
+     * @throws IllegalArgumentException if {@code fields} contains unknown fields.
+     */
+    protected DocumentParser(final InputStream in, final Set<String> fields) {
+        this((Closeable) in, fields);
+    }
+
+    /**
+     * Creates a new document parser.
+     *
+     * @param in     the reader or input stream to the document(s) to be parsed.
+     * @param fields the fields to be filled.
+     */
+    private DocumentParser(final Closeable in, final Set<String> fields) {
 
         if (in == null) {
             throw new NullPointerException("Reader cannot be null.");
         }
 
+        if (fields == null) {
+            throw new NullPointerException("Fields to be parsed cannot be null.");
+        }
+
+        if (!ParsedDocument.PARSED_FIELDS.containsAll(fields)) {
+            throw new IllegalArgumentException(
+                    String.format("Unknown fields to be parsed: %s.", fields));
+        }
+
         this.in = in;
+
+        final Set<String> parsed = new HashSet<>(fields);
+        parsed.add(ParsedDocument.FIELDS.ID);
+        this.fields = Set.copyOf(parsed);
     }
 
 
+    /**
+     * Makes the parser return the same {@code ParsedDocument}, reset and filled again, for each parsed document,
+     * instead of a new one. Parsers are free to ignore it.
+     * <p>
+     * A returned document is then valid only until the next call to {@link #hasNext()}, so it must not be retained.
+     *
+     * @param reuseDocuments whether parsed documents can be reused.
+     */
+    public void setReuseDocuments(final boolean reuseDocuments) {
+        this.reuseDocuments = reuseDocuments;
+    }
+
     @Override
     public final Iterator<ParsedDocument> iterator() {
         return this;
@@ -114,6 +188,84 @@ public abstract class DocumentParser
 
     }
 
+    /**
+     * Creates a new {@code DocumentParser} which fills only the given fields of the parsed documents.
+     * <p>
+     * It uses the constructor of the {@code DocumentParser} taking a {@code Reader} and a {@code Set} of field names
+     * as input, if any. Otherwise, it falls back to the single-parameter constructor and all the fields are filled.
+     *
+     * @param cls    the class of the document parser to be instantiated.
+     * @param in     the reader to the document(s) to be parsed.
+     * @param fields the fields to be filled, among {@link ParsedDocument#PARSED_FIELDS}.
+     * @return a new instance of {@code DocumentParser} for the given class.
+     * @throws NullPointerException  if any of the parameters is {@code null}.
+     * @throws IllegalStateException if something goes wrong in instantiating the class.
+     */
+    public static DocumentParser create(Class<? extends DocumentParser> cls, Reader in, Set<String> fields) {
+
+        if (cls == null) {
+            throw new NullPointerException("Document parser class cannot be null.");
+        }
+
+        if (in == null) {
+            throw new NullPointerException("Reader cannot be null.");
+        }
+
+        if (fields == null) {
+            throw new NullPointerException("Fields to be parsed cannot be null.");
+        }
+
+        try {
+            return cls.getConstructor(Reader.class, Set.class).newInstance(in, fields);
+        } catch (NoSuchMethodException e) {
+            return create(cls, in);
+        } catch (Exception e) {
+            throw new IllegalStateException(String.format("Unable to instantiate document parser %s.", cls.getName()),
+                    e);
+        }
+
+    }
+
+    /**
+     * Creates a new {@code DocumentParser} reading UTF-8 encoded bytes, which fills only the given fields of the
+     * parsed documents.
+     * <p>
+     * It uses the constructor of the {@code DocumentParser} taking an {@code InputStream} and a {@code Set} of field
+     * names as input, if any, so that the parser can work directly on bytes. Otherwise, the bytes are decoded through
+     * an {@code InputStreamReader}.
+     *
+     * @param cls    the class of the document parser to be instantiated.
+     * @param in     the input stream to the document(s) to be parsed.
+     * @param fields the fields to be filled, among {@link ParsedDocument#PARSED_FIELDS}.
+     * @return a new instance of {@code DocumentParser} for the given class.
+     * @throws NullPointerException  if any of the parameters is {@code null}.
+     * @throws IllegalStateException if something goes wrong in instantiating the class.
+     */
+    public static DocumentParser create(Class<? extends DocumentParser> cls, InputStream in, Set<String> fields) {
+
+        if (cls == null) {
+            throw new NullPointerException("Document parser class cannot be null.");
+        }
+
+        if (in == null) {
+            throw new NullPointerException("Input stream cannot be null.");
+        }
+
+        if (fields == null) {
+            throw new NullPointerException("Fields to be parsed cannot be null.");
+        }
+
+        try {
+            return cls.getConstructor(InputStream.class, Set.class).newInstance(in, fields);
+        } catch (NoSuchMethodException e) {
+            return create(cls, new InputStreamReader(in, StandardCharsets.UTF_8), fields);
+        } catch (Exception e) {
+            throw new IllegalStateException(String.format("Unable to instantiate document parser %s.", cls.getName()),
+                    e);
+        }
+
+    }
+
     /**
      * Performs the actual parsing of the document.
      *
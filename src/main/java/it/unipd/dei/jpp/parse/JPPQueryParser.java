@@ -1,13 +1,20 @@
 package it.unipd.dei.jpp.parse;
 
+import it.unipd.dei.jpp.utils.SynonymDictionary;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.CharArraySet;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
-import org.apache.lucene.queryparser.classic.QueryParser;
-import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.wordnet.SynonymMap;
+import org.apache.lucene.search.SynonymQuery;
+import org.apache.lucene.search.TermQuery;
 
+import java.io.IOException;
 import java.util.*;
 
 import static it.unipd.dei.jpp.utils.AnalyzerUtil.loadStopList;
@@ -15,14 +22,14 @@ import static it.unipd.dei.jpp.utils.AnalyzerUtil.loadStopList;
 public class JPPQueryParser {
 
     /**
-     * The query parsed used to create the query
+     * The fields used to generate the query, in the order of {@code fieldAndBoosts}.
      */
-    private final QueryParser qp;
+    private final String[] fields;
 
     /**
-     * A map with fields used to generate the query and their weights
+     * The weight of each of the {@code fields}.
      */
-    private final Map<String, Float> fieldAndBoosts;
+    private final float[] boosts;
 
     /**
      * The default field used for parsing with single field
@@ -41,6 +48,11 @@ public class JPPQueryParser {
 
     /**
      * Setup the custom query parser.
+     * <p>
+     * Queries are built directly from the tokens of the text, analyzed once with the analyzer of the default field,
+     * which is assumed to treat all the fields alike; tokens at the same position are synonyms. Without synonyms, they
+     * are the same queries the classic {@code QueryParser} and {@code MultiFieldQueryParser} parse from the escaped
+     * text, except that words such as {@code AND}, {@code OR} and {@code NOT} are always plain words.
      *
      * @param fieldAndBoosts A map of field with weights
      * @param analyzer       The analyzer used to process the query
@@ -69,98 +81,202 @@ public class JPPQueryParser {
         // load ebsco stop list
         this.stopList = loadStopList("ebsco.txt");
 
-        this.fieldAndBoosts = fieldAndBoosts;
+        // fields and weights are fixed, so they are read from the map only once
+        this.fields = fieldAndBoosts.keySet().toArray(new String[0]);
+        this.boosts = new float[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            boosts[i] = fieldAndBoosts.get(fields[i]);
+        }
+
         this.analyzer = analyzer;
         this.defaultField = defaultField;
-
-        qp = new QueryParser(defaultField, analyzer);
     }
 
     /**
-     * Parse a single field using {@code QueryParserBase}.
+     * Parse a single field, like {@code QueryParser} on the escaped query.
      *
      * @param query The query to be parsed
      * @return a {@code Query}
      * @throws Exception if something goes wrong
      */
     public Query parse(String query) throws Exception {
-        String queryEscaped = QueryParserBase.escape(query);
-        return qp.parse(queryEscaped);
+        final List<List<String>> positions = analyze(query);
+
+        if (positions.size() == 1) {
+            return positionQuery(defaultField, positions.get(0));
+        }
+
+        final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+        for (List<String> position : positions) {
+            bq.add(positionQuery(defaultField, position), BooleanClause.Occur.SHOULD);
+        }
+        return bq.build();
     }
 
     /**
-     * Parse multiple fields with weights using {@code MultiFieldQueryParser}.
+     * Parse multiple fields with weights, like {@code MultiFieldQueryParser} on the escaped query.
      *
      * @param query The query to be parsed
      * @return a {@code Query}
      * @throws Exception if something goes wrong
      */
     public Query multiParse(String query) throws Exception {
-        String queryEscaped = QueryParserBase.escape(query);
+        final List<List<String>> positions = analyze(query);
 
-        String[] fields = new String[fieldAndBoosts.size()];
-        fieldAndBoosts.keySet().toArray(fields);
+        // a single term (or synonyms): one clause per field
+        if (positions.size() == 1) {
+            return multiFieldQuery(positions.get(0));
+        }
 
-        MultiFieldQueryParser mqp = new MultiFieldQueryParser(fields, analyzer, fieldAndBoosts);
-        return mqp.parse(queryEscaped);
+        // many terms: one clause per term, each with one clause per field
+        final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+        for (List<String> position : positions) {
+            bq.add(multiFieldQuery(position), BooleanClause.Occur.SHOULD);
+        }
+        return bq.build();
     }
 
     /**
      * Parse query with synonyms with default weight of 1 to synonyms.
      *
      * @param query    The query to be parsed
-     * @param synonyms A {@code SynonymMap}
+     * @param synonyms A {@code SynonymDictionary}
      * @return a {@code Query}
      * @throws Exception if something goes wrong
      */
-    public Query parse(String query, SynonymMap synonyms) throws Exception {
+    public Query parse(String query, SynonymDictionary synonyms) throws Exception {
         return parse(query, synonyms, 1f);
     }
 
     /**
      * Parse query with synonyms with custom weight.
+     * <p>
+     * Each term of the query is searched in all the fields, with their weights; in each field, the term and its
+     * synonyms, analyzed like the query, are scored as a single term by a {@code SynonymQuery}, the synonyms having
+     * the given weight.
      *
      * @param query        The query to be parsed
-     * @param synonyms     A {@code SynonymMap}
-     * @param synonymBoost The weight to assign to synonyms
+     * @param synonyms     A {@code SynonymDictionary}
+     * @param synonymBoost The weight to assign to synonyms, greater than 0 and at most 1
      * @return a {@code Query}
-     * @throws Exception if something goes wrong
+     * @throws IllegalArgumentException if {@code synonymBoost} is not greater than 0 and at most 1
+     * @throws Exception                if something goes wrong
      */
-    public Query parse(String query, SynonymMap synonyms, float synonymBoost) throws Exception {
-        StringBuilder sb = new StringBuilder();
+    public Query parse(String query, SynonymDictionary synonyms, float synonymBoost) throws Exception {
+        if (!(synonymBoost > 0f && synonymBoost <= 1f)) {
+            throw new IllegalArgumentException("Synonym boost must be greater than 0 and at most 1.");
+        }
 
-        String queryParsed = qp.parse(query).toString(defaultField).replaceAll("[^\\w\\s]", "");
-        String[] terms = queryParsed.split(" ");
+        final BooleanQuery.Builder bq = new BooleanQuery.Builder();
 
-        for (String term : terms) {
-            String[] synonymsTerms = null;
-            if (synonyms != null) {
-                synonymsTerms = synonyms.getSynonyms(term);
-            }
+        for (List<String> position : analyze(query)) {
+            for (String term : position) {
 
-            sb.append("(");
-            for (String field : fieldAndBoosts.keySet()) {
-                double boost = fieldAndBoosts.get(field);
-
-                sb.append(field).append(":(").append(term);
-                float termWeight = termWeight(term);
-                if (termWeight != 1f) {
-                    sb.append("^").append(termWeight);
+                // the synonyms of the term, analyzed like the query
+                final Set<String> synonymsTerms = new LinkedHashSet<>();
+                if (synonyms != null) {
+                    for (String synonym : synonyms.getSynonyms(term)) {
+                        for (List<String> synonymPosition : analyze(synonym)) {
+                            synonymsTerms.addAll(synonymPosition);
+                        }
+                    }
+                    synonymsTerms.remove(term);
                 }
 
-                if (synonymsTerms != null && synonymsTerms.length != 0) {
-                    for (String synonymsTerm : synonymsTerms) {
-                        sb.append(" OR ").append(synonymsTerm).append("^").append(synonymBoost);
+                final BooleanQuery.Builder termQuery = new BooleanQuery.Builder();
+                for (int i = 0; i < fields.length; i++) {
+                    final Query q;
+                    if (synonymsTerms.isEmpty()) {
+                        q = termQuery(fields[i], term, termWeight(term));
+                    } else {
+                        final SynonymQuery.Builder sq = new SynonymQuery.Builder(fields[i]);
+                        sq.addTerm(new Term(fields[i], term), termWeight(term));
+                        for (String synonymsTerm : synonymsTerms) {
+                            sq.addTerm(new Term(fields[i], synonymsTerm), synonymBoost);
+                        }
+                        q = sq.build();
                     }
+                    termQuery.add(new BoostQuery(q, boosts[i]), BooleanClause.Occur.SHOULD);
                 }
 
-                sb.append(")^").append(boost).append(" ");
+                bq.add(termQuery.build(), BooleanClause.Occur.SHOULD);
             }
-            sb.append(") ");
         }
 
-        sb.deleteCharAt(sb.length() - 1);
-        return qp.parse(sb.toString());
+        return bq.build();
+    }
+
+    /**
+     * Analyzes a query, once, with the analyzer of the default field, grouping its terms by position.
+     *
+     * @param query The query to be analyzed
+     * @return the terms of each position, so that the terms at the same position are synonyms
+     * @throws IOException if something goes wrong while analyzing
+     */
+    private List<List<String>> analyze(String query) throws IOException {
+        final List<List<String>> positions = new ArrayList<>();
+
+        try (TokenStream stream = analyzer.tokenStream(defaultField, query)) {
+            final CharTermAttribute termAtt = stream.addAttribute(CharTermAttribute.class);
+            final PositionIncrementAttribute posIncAtt = stream.addAttribute(PositionIncrementAttribute.class);
+
+            stream.reset();
+            while (stream.incrementToken()) {
+                if (positions.isEmpty() || posIncAtt.getPositionIncrement() != 0) {
+                    positions.add(new ArrayList<>(1));
+                }
+                positions.get(positions.size() - 1).add(termAtt.toString());
+            }
+            stream.end();
+        }
+
+        return positions;
+    }
+
+    /**
+     * Builds the query of the terms at a position in all the fields, each with its weight.
+     *
+     * @param terms The terms at the position
+     * @return a {@code Query}
+     */
+    private Query multiFieldQuery(List<String> terms) {
+        final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+        for (int i = 0; i < fields.length; i++) {
+            bq.add(new BoostQuery(positionQuery(fields[i], terms), boosts[i]), BooleanClause.Occur.SHOULD);
+        }
+        return bq.build();
+    }
+
+    /**
+     * Builds the query of the terms at a position in a field: a term or, if there are many, synonyms.
+     *
+     * @param field The field
+     * @param terms The terms at the position
+     * @return a {@code Query}
+     */
+    private Query positionQuery(String field, List<String> terms) {
+        if (terms.size() == 1) {
+            return termQuery(field, terms.get(0), termWeight(terms.get(0)));
+        }
+
+        final SynonymQuery.Builder sq = new SynonymQuery.Builder(field);
+        for (String term : terms) {
+            sq.addTerm(new Term(field, term), termWeight(term));
+        }
+        return sq.build();
+    }
+
+    /**
+     * Builds the query of a term in a field, with a weight.
+     *
+     * @param field  The field
+     * @param term   The term
+     * @param weight The weight of the term
+     * @return a {@code Query}
+     */
+    private static Query termQuery(String field, String term, float weight) {
+        final Query q = new TermQuery(new Term(field, term));
+        return weight == 1f ? q : new BoostQuery(q, weight);
     }
 
     /**
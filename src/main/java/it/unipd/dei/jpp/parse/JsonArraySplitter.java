@@ -0,0 +1,268 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.parse;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits the first array of a UTF-8 encoded JSON document into chunks of consecutive objects, without parsing them.
+ * <p>
+ * The bytes are scanned only to keep track of strings and nesting, so that the boundaries of the objects directly
+ * contained in the array can be found. Each chunk is a byte range starting at the opening brace of its first object
+ * and ending after the closing brace of its last one; wrapped between square brackets it is a valid JSON array, which
+ * can be parsed on its own by {@link ToucheParser}. Chunks are returned in the order they appear in the document.
+ *
+ * @author Marco Alecci (marco.alecci@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class JsonArraySplitter {
+
+    /**
+     * A range of bytes containing whole objects of the array.
+     */
+    public static final class Chunk {
+
+        /**
+         * The offset of the first byte of the chunk.
+         */
+        private final long start;
+
+        /**
+         * The offset following the last byte of the chunk.
+         */
+        private final long end;
+
+        /**
+         * Creates a new chunk.
+         *
+         * @param start the offset of the first byte of the chunk.
+         * @param end   the offset following the last byte of the chunk.
+         */
+        private Chunk(final long start, final long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the offset of the first byte of the chunk.
+         *
+         * @return the offset of the first byte of the chunk.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the offset following the last byte of the chunk.
+         *
+         * @return the offset following the last byte of the chunk.
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * Returns the number of bytes of the chunk.
+         *
+         * @return the number of bytes of the chunk.
+         */
+        public long length() {
+            return end - start;
+        }
+    }
+
+    /**
+     * The size of the buffer used to scan the input.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The input to be split.
+     */
+    private final InputStream in;
+
+    /**
+     * The minimum size of a chunk, in bytes. Only the last chunk can be smaller.
+     */
+    private final long chunkSize;
+
+    /**
+     * The buffer used to scan the input.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The number of valid bytes in the buffer.
+     */
+    private int limit = 0;
+
+    /**
+     * The position of the next byte to be scanned in the buffer.
+     */
+    private int pos = 0;
+
+    /**
+     * The offset in the input of the first byte of the buffer.
+     */
+    private long bufferOffset = 0;
+
+    /**
+     * The current nesting depth.
+     */
+    private int depth = 0;
+
+    /**
+     * The nesting depth inside the array, or {@code -1} if it has not been found yet.
+     */
+    private int arrayDepth = -1;
+
+    /**
+     * Whether the scanner is inside a string.
+     */
+    private boolean inString = false;
+
+    /**
+     * Whether the previous byte, inside a string, was an escape character.
+     */
+    private boolean escaped = false;
+
+    /**
+     * Whether the end of the array, or of the input, has been reached.
+     */
+    private boolean done = false;
+
+    /**
+     * Creates a new splitter.
+     *
+     * @param in        the input to be split. It is not closed by the splitter.
+     * @param chunkSize the minimum size of a chunk, in bytes.
+     * @throws NullPointerException     if {@code in} is {@code null}.
+     * @throws IllegalArgumentException if {@code chunkSize} is less than or equal to zero.
+     */
+    public JsonArraySplitter(final InputStream in, final long chunkSize) {
+
+        if (in == null) {
+            throw new NullPointerException("Input stream cannot be null.");
+        }
+
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size cannot be less than or equal to zero.");
+        }
+
+        this.in = in;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the next chunk of objects.
+     *
+     * @return the next chunk of objects, or {@code null} if there are no more objects in the array.
+     * @throws IOException if something goes wrong while reading the input.
+     */
+    public Chunk next() throws IOException {
+
+        long chunkStart = -1;
+        long chunkEnd = -1;
+
+        while (!done) {
+
+            if (pos == limit && !fill()) {
+                done = true;
+                break;
+            }
+
+            final byte b = buffer[pos];
+            final long offset = bufferOffset + pos;
+            pos++;
+
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (b == '\\') {
+                    escaped = true;
+                } else if (b == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+
+            switch (b) {
+                case '"':
+                    inString = true;
+                    break;
+                case '[':
+                    depth++;
+                    if (arrayDepth < 0) {
+                        arrayDepth = depth;
+                    }
+                    break;
+                case '{':
+                    depth++;
+                    if (depth == arrayDepth + 1 && chunkStart < 0) {
+                        chunkStart = offset;
+                    }
+                    break;
+                case '}':
+                    depth--;
+                    if (depth == arrayDepth && chunkStart >= 0) {
+                        chunkEnd = offset + 1;
+                        if (chunkEnd - chunkStart >= chunkSize) {
+                            return new Chunk(chunkStart, chunkEnd);
+                        }
+                    }
+                    break;
+                case ']':
+                    depth--;
+                    if (depth == arrayDepth - 1) {
+                        done = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return chunkEnd > chunkStart && chunkStart >= 0 ? new Chunk(chunkStart, chunkEnd) : null;
+    }
+
+    /**
+     * Reads the next block of the input in the buffer.
+     *
+     * @return {@code false} if the end of the input has been reached.
+     * @throws IOException if something goes wrong while reading the input.
+     */
+    private boolean fill() throws IOException {
+        bufferOffset += limit;
+        pos = 0;
+        limit = 0;
+
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) == 0) {
+            // keep reading until some bytes are available or the input ends
+        }
+
+        if (n < 0) {
+            return false;
+        }
+
+        limit = n;
+        return true;
+    }
+
+}
@@ -20,6 +20,9 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.apache.lucene.document.Field;
 
+import java.util.List;
+import java.util.Set;
+
 /**
  * Represents a parsed document to be indexed.
  *
@@ -52,8 +55,38 @@ public class ParsedDocument {
         public static final String AUTHOR = "author";
         public static final String AUTHOR_ORGANIZATION = "authorOrganization";
         public static final String AUTHOR_ROLE = "authorRole";
+        public static final String SOURCE_FILE = "sourceFile";
+        public static final String SENTIMENT = "sentiment";
     }
 
+    /**
+     * The names of all the fields filled by a {@code DocumentParser}.
+     */
+    public static final Set<String> PARSED_FIELDS = Set.of(FIELDS.ID, FIELDS.ACQUISITION_TIME, FIELDS.SOURCE_URL,
+            FIELDS.PREMISES, FIELDS.DISCUSSION_TITLE, FIELDS.MODE, FIELDS.SOURCE_DOMAIN, FIELDS.SOURCE_TEXT,
+            FIELDS.CONCLUSION, FIELDS.STANCE, FIELDS.TOPIC, FIELDS.AUTHOR, FIELDS.AUTHOR_ORGANIZATION,
+            FIELDS.AUTHOR_ROLE);
+
+    /**
+     * The names of the fields indexed as a single, untokenized, term, which must be matched exactly.
+     */
+    public static final Set<String> KEYWORD_FIELDS = Set.of(FIELDS.ID, FIELDS.STANCE, FIELDS.SOURCE_FILE);
+
+    /**
+     * The names of the fields making up the body of the document, in the order they are concatenated by {@link
+     * #getFullBody()}.
+     */
+    public static final List<String> BODY_FIELDS = List.of(FIELDS.ACQUISITION_TIME, FIELDS.SOURCE_URL, FIELDS.TOPIC,
+            FIELDS.AUTHOR, FIELDS.AUTHOR_ROLE, FIELDS.AUTHOR_ORGANIZATION, FIELDS.SOURCE_DOMAIN,
+            FIELDS.DISCUSSION_TITLE, FIELDS.PREMISES, FIELDS.CONCLUSION);
+
+    /**
+     * The names of the body fields whose values are shared by many documents, like the title and the URL of a debate
+     * shared by all its arguments, or the domain of its website.
+     */
+    public static final Set<String> REPEATED_FIELDS = Set.of(FIELDS.SOURCE_URL, FIELDS.TOPIC, FIELDS.AUTHOR,
+            FIELDS.AUTHOR_ROLE, FIELDS.AUTHOR_ORGANIZATION, FIELDS.SOURCE_DOMAIN, FIELDS.DISCUSSION_TITLE);
+
     /**
      * The id of the document
      */
@@ -420,21 +453,88 @@ public class ParsedDocument {
     }
 
     /**
-     * Returns the body of the document
+     * Clears all the fields of the document, identifier included, so that it can be filled again.
+     */
+    public final void reset() {
+        id = null;
+        acquisitionTime = null;
+        sourceUrl = null;
+        premises = null;
+        discussionTitle = null;
+        mode = null;
+        sourceDomain = null;
+        sourceText = null;
+        conclusion = null;
+        stance = null;
+        topic = null;
+        author = null;
+        authorOrganization = null;
+        authorRole = null;
+    }
+
+    /**
+     * Returns the value of a parsed field.
+     *
+     * @param field the name of the field, one of {@link #PARSED_FIELDS}.
+     * @return the value of the field, or {@code null} if it has not been parsed.
+     * @throws IllegalArgumentException if {@code field} is not a parsed field.
+     */
+    public final String get(final String field) {
+        switch (field) {
+            case FIELDS.ID:
+                return id;
+            case FIELDS.ACQUISITION_TIME:
+                return acquisitionTime;
+            case FIELDS.SOURCE_URL:
+                return sourceUrl;
+            case FIELDS.PREMISES:
+                return premises;
+            case FIELDS.DISCUSSION_TITLE:
+                return discussionTitle;
+            case FIELDS.MODE:
+                return mode;
+            case FIELDS.SOURCE_DOMAIN:
+                return sourceDomain;
+            case FIELDS.SOURCE_TEXT:
+                return sourceText;
+            case FIELDS.CONCLUSION:
+                return conclusion;
+            case FIELDS.STANCE:
+                return stance;
+            case FIELDS.TOPIC:
+                return topic;
+            case FIELDS.AUTHOR:
+                return author;
+            case FIELDS.AUTHOR_ORGANIZATION:
+                return authorOrganization;
+            case FIELDS.AUTHOR_ROLE:
+                return authorRole;
+            default:
+                throw new IllegalArgumentException(String.format("%s is not a parsed field.", field));
+        }
+    }
+
+    /**
+     * Returns the body of the document, i.e. the {@link #BODY_FIELDS} which are not {@code null}, separated by a
+     * space.
+     * <p>
+     * It copies the whole text of the document: to index the body, add each of the {@link #BODY_FIELDS} as a value of
+     * a multi-valued field instead.
      *
      * @return the body of the document
      */
     public final String getFullBody() {
-        return acquisitionTime + " " +
-                sourceUrl + " " +
-                topic + " " +
-                author + " " +
-                authorRole + " " +
-                authorOrganization + " " +
-                sourceDomain + " " +
-                discussionTitle + " " +
-                premises + " " +
-                conclusion;
+        final StringBuilder sb = new StringBuilder();
+        for (String field : BODY_FIELDS) {
+            final String value = get(field);
+            if (value != null) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(value);
+            }
+        }
+        return sb.toString();
     }
 
 }
@@ -19,15 +19,18 @@ package it.unipd.dei.jpp.parse;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
+import java.util.Set;
 
 /**
  * Json Parser using Jackson Library
+ * <p>
+ * Arguments are read token by token: only the values of the requested fields of the {@code ParsedDocument} are decoded,
+ * while all the other values and sub-trees (e.g. {@code aspects}, the annotations of the premises and, unless
+ * requested, the {@code sourceText} of the context) are skipped without being materialized.
  *
  * @author Marco Alecci (marco.alecci@studenti.unipd.it)
  * @version 1.00
@@ -35,6 +38,11 @@ import java.io.Reader;
  */
 public class ToucheParser extends DocumentParser {
 
+    /**
+     * The factory of the parsers. It is thread-safe and reusing it allows sharing its symbol tables.
+     */
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     /**
      * The currently parsed document
      */
@@ -46,88 +54,223 @@ public class ToucheParser extends DocumentParser {
     private final JsonParser parser;
 
     /**
-     * Creates a new document parser.
+     * Creates a new document parser which fills all the fields of the parsed documents.
      *
      * @param in the reader to the document(s) to be parsed.
      * @throws NullPointerException     if {@code in} is {@code null}.
      * @throws IllegalArgumentException if any error occurs while creating the parser.
      */
     public ToucheParser(final Reader in) throws IOException {
-        super(new BufferedReader(in));
-        parser = new JsonFactory().createParser(in);
-        while (true) {
-            if (parser.nextToken().equals(JsonToken.START_ARRAY))
-                break;
-        }
+        this(in, ParsedDocument.PARSED_FIELDS);
+    }
+
+    /**
+     * Creates a new document parser which fills only the given fields of the parsed documents.
+     *
+     * @param in     the reader to the document(s) to be parsed.
+     * @param fields the fields to be filled, among {@link ParsedDocument#PARSED_FIELDS}.
+     * @throws NullPointerException     if {@code in} and/or {@code fields} are {@code null}.
+     * @throws IllegalArgumentException if any error occurs while creating the parser.
+     */
+    public ToucheParser(final Reader in, final Set<String> fields) throws IOException {
+        super(in, fields);
+        parser = JSON_FACTORY.createParser(in);
+        skipToArray();
+    }
+
+    /**
+     * Creates a new document parser working directly on UTF-8 encoded bytes, which fills only the given fields of the
+     * parsed documents.
+     *
+     * @param in     the input stream to the document(s) to be parsed.
+     * @param fields the fields to be filled, among {@link ParsedDocument#PARSED_FIELDS}.
+     * @throws NullPointerException     if {@code in} and/or {@code fields} are {@code null}.
+     * @throws IllegalArgumentException if any error occurs while creating the parser.
+     */
+    public ToucheParser(final InputStream in, final Set<String> fields) throws IOException {
+        super(in, fields);
+        parser = JSON_FACTORY.createParser(in);
+        skipToArray();
+    }
+
+    /**
+     * Moves the parser to the beginning of the first array, which contains the arguments.
+     *
+     * @throws IOException              if something goes wrong while parsing.
+     * @throws IllegalArgumentException if there is no array.
+     */
+    private void skipToArray() throws IOException {
+        JsonToken token;
+        do {
+            token = parser.nextToken();
+            if (token == null) {
+                throw new IllegalArgumentException("No array of arguments found.");
+            }
+        } while (token != JsonToken.START_ARRAY);
     }
 
     @Override
     public boolean hasNext() {
         try {
             JsonToken token = parser.nextToken();
-            if (token.equals(JsonToken.END_ARRAY)) {
+            if (token == null || token == JsonToken.END_ARRAY) {
+                parser.close();
                 return false;
             }
 
-            if (!token.equals(JsonToken.START_OBJECT)) {
-                throw new IllegalStateException();
+            if (token != JsonToken.START_OBJECT) {
+                throw new IllegalStateException(String.format("Expected an argument object, found %s.", token));
             }
 
-            final JsonNode root = new ObjectMapper().readTree(parser);
-            final JsonNode context = root.get("context");
-            final JsonNode premise = root.get("premises").get(0);
-
-            final String id = root.get("id").asText();
-            document = new ParsedDocument(id);
-
-            final String acquisitionTime = context.has("acquisitionTime") ? context.get("acquisitionTime").asText() : null;
-            document.setAcquisitionTime(acquisitionTime);
+            if (reuseDocuments && document != null) {
+                document.reset();
+            } else {
+                document = new ParsedDocument(null);
+            }
 
-            final String sourceUrl = root.has("sourceUrl") ? root.get("sourceUrl").asText() : null;
-            document.setSourceUrl(sourceUrl);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
 
-            final String stance = premise.has("stance") ? premise.get("stance").asText() : null;
-            document.setStance(stance);
+                if (!fields.contains(name) && !name.equals("context") && !name.equals("premises")) {
+                    parser.skipChildren();
+                    continue;
+                }
 
-            final String mode = context.has("mode") ? context.get("mode").asText() : null;
-            document.setMode(mode);
+                switch (name) {
+                    case ParsedDocument.FIELDS.ID:
+                        document.setIdentifier(text());
+                        break;
+                    case ParsedDocument.FIELDS.SOURCE_URL:
+                        document.setSourceUrl(text());
+                        break;
+                    case ParsedDocument.FIELDS.CONCLUSION:
+                        document.setConclusion(text());
+                        break;
+                    case ParsedDocument.FIELDS.AUTHOR:
+                        document.setAuthor(text());
+                        break;
+                    case ParsedDocument.FIELDS.AUTHOR_ORGANIZATION:
+                        document.setAuthorOrganization(text());
+                        break;
+                    case ParsedDocument.FIELDS.AUTHOR_ROLE:
+                        document.setAuthorRole(text());
+                        break;
+                    case "context":
+                        parseContext();
+                        break;
+                    case "premises":
+                        parsePremises();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
 
-            final String premises = premise.has("text") ? premise.get("text").asText() : null;
-            document.setPremises(premises);
+            return true;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Read failed", e);
+        }
+    }
 
-            final String sourceText = context.has("sourceText") ? context.get("sourceText").asText() : null;
-            document.setSourceText(sourceText);
+    @Override
+    protected final ParsedDocument parse() {
+        return document;
+    }
 
-            final String discussionTitle = context.has("discussionTitle") ? context.get("discussionTitle").asText() : null;
-            document.setDiscussionTitle(discussionTitle);
+    /**
+     * Parses the {@code context} object of the current argument.
+     *
+     * @throws IOException if something goes wrong while parsing.
+     */
+    private void parseContext() throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
 
-            final String sourceDomain = context.has("sourceDomain") ? context.get("sourceDomain").asText() : null;
-            document.setSourceDomain(sourceDomain);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            parser.nextToken();
 
-            final String conclusion = root.has("conclusion") ? root.get("conclusion").asText() : null;
-            document.setConclusion(conclusion);
+            if (!fields.contains(name)) {
+                // the value is skipped without being decoded
+                parser.skipChildren();
+                continue;
+            }
 
-            final String topic = context.has("topic") ? context.get("topic").asText() : null;
-            document.setTopic(topic);
+            switch (name) {
+                case ParsedDocument.FIELDS.ACQUISITION_TIME:
+                    document.setAcquisitionTime(text());
+                    break;
+                case ParsedDocument.FIELDS.MODE:
+                    document.setMode(text());
+                    break;
+                case ParsedDocument.FIELDS.SOURCE_TEXT:
+                    document.setSourceText(text());
+                    break;
+                case ParsedDocument.FIELDS.DISCUSSION_TITLE:
+                    document.setDiscussionTitle(text());
+                    break;
+                case ParsedDocument.FIELDS.SOURCE_DOMAIN:
+                    document.setSourceDomain(text());
+                    break;
+                case ParsedDocument.FIELDS.TOPIC:
+                    document.setTopic(text());
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+    }
 
-            final String author = root.has("author") ? root.get("author").asText() : null;
-            document.setAuthor(author);
+    /**
+     * Parses the {@code premises} array of the current argument. Only the first premise is taken into account.
+     *
+     * @throws IOException if something goes wrong while parsing.
+     */
+    private void parsePremises() throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
 
-            final String authorOrganization = root.has("authorOrganization") ? root.get("authorOrganization").asText() : null;
-            document.setAuthorOrganization(authorOrganization);
+        if (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
 
-            final String authorRole = root.has("authorRole") ? root.get("authorRole").asText() : null;
-            document.setAuthorRole(authorRole);
+                if (name.equals("text") && fields.contains(ParsedDocument.FIELDS.PREMISES)) {
+                    document.setPremises(text());
+                } else if (name.equals(ParsedDocument.FIELDS.STANCE) && fields.contains(ParsedDocument.FIELDS.STANCE)) {
+                    document.setStance(text());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } else {
+            parser.skipChildren();
+        }
 
-            return true;
-        } catch (IOException e) {
-            throw new IllegalArgumentException("Read failed", e);
+        // skip the following premises, if any
+        while (parser.currentToken() != JsonToken.END_ARRAY && parser.nextToken() != JsonToken.END_ARRAY) {
+            parser.skipChildren();
         }
     }
 
-    @Override
-    protected final ParsedDocument parse() {
-        return document;
+    /**
+     * Returns the textual value of the current token, in the same way {@code JsonNode.asText()} does: scalars are
+     * converted to their textual representation, while objects and arrays are skipped and mapped to an empty string.
+     *
+     * @return the textual value of the current token.
+     * @throws IOException if something goes wrong while parsing.
+     */
+    private String text() throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return "";
+        }
+        return parser.getText();
     }
 
 }
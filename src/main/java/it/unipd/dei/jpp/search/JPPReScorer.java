@@ -1,9 +1,15 @@
 package it.unipd.dei.jpp.search;
 
-import com.vader.sentiment.analyzer.SentimentAnalyzer;
 import it.unipd.dei.jpp.parse.ParsedDocument;
+import it.unipd.dei.jpp.utils.AnalyzerUtil;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopDocs;
 
@@ -12,6 +18,13 @@ import java.util.*;
 
 /**
  * Re-score the documents using sentiment analysis
+ * <p>
+ * The sentiment of the premises is read from the sentiment column of the index, computed at index time (see {@link
+ * it.unipd.dei.jpp.index.DirectoryIndexer#setSentiment(boolean)}), so that re-scoring neither loads the stored fields
+ * nor analyzes any text; for segments indexed without the column it is computed from the stored premises, as before.
+ * When a {@link SentimentScorer} is given, the sentiment is instead always computed at query time by the scorer, which
+ * analyzes the premises concurrently and caches their sentiment across topics, e.g. because the sentiment function has
+ * changed since the index was built.
  *
  * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
  * @version 1.00
@@ -34,15 +47,31 @@ public class JPPReScorer {
      */
     private final int topN;
 
+    /**
+     * The scorer computing the sentiment at query time, or {@code null} to read the indexed one
+     */
+    private final SentimentScorer scorer;
+
     /**
      * @param reader  The reader for the index
      * @param topDocs The documents to be re-scored
      * @param topN    The number of first N documents to be re-scored
      */
     public JPPReScorer(IndexReader reader, TopDocs topDocs, int topN) {
+        this(reader, topDocs, topN, null);
+    }
+
+    /**
+     * @param reader  The reader for the index
+     * @param topDocs The documents to be re-scored
+     * @param topN    The number of first N documents to be re-scored
+     * @param scorer  The scorer computing the sentiment at query time, or {@code null} to read the indexed one
+     */
+    public JPPReScorer(IndexReader reader, TopDocs topDocs, int topN, SentimentScorer scorer) {
         this.reader = reader;
         this.topDocs = topDocs;
         this.topN = topN;
+        this.scorer = scorer;
     }
 
     /**
@@ -54,11 +83,10 @@ public class JPPReScorer {
     public TopDocs reScore() throws IOException {
         ScoreDoc[] newScoreDocs = topDocs.scoreDocs.clone();
 
-        for (int i = 0; i < newScoreDocs.length && i < topN; i++) {
+        final float[] sentiments = getNewScores(newScoreDocs, Math.min(newScoreDocs.length, topN));
+        for (int i = 0; i < sentiments.length; i++) {
             ScoreDoc scoreDoc = newScoreDocs[i];
-            Document doc = reader.document(scoreDoc.doc);
-            float newScore = getNewScore(doc);
-            scoreDoc.score = combine(scoreDoc.score, newScore);
+            scoreDoc.score = combine(scoreDoc.score, sentiments[i]);
         }
 
         Comparator<ScoreDoc> sortDocComparator = (a, b) -> {
@@ -76,6 +104,56 @@ public class JPPReScorer {
         return new TopDocs(topDocs.totalHits, newScoreDocs);
     }
 
+    /**
+     * Reads the sentiment of the first documents, visiting them in document order, so that the sentiment column of each
+     * segment is read in a single forward pass, or computes it by the scorer, if any.
+     *
+     * @param scoreDocs The documents
+     * @param n         The number of first documents whose sentiment has to be read
+     * @return the sentiment of each of the first {@code n} documents, in the same order
+     * @throws IOException if something goes wrong
+     */
+    private float[] getNewScores(ScoreDoc[] scoreDocs, int n) throws IOException {
+        if (scorer != null) {
+            return scorer.score(reader, scoreDocs, n);
+        }
+
+        final float[] sentiments = new float[n];
+
+        // the ranks of the documents, by document
+        final Integer[] ranks = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            ranks[i] = i;
+        }
+        Arrays.sort(ranks, Comparator.comparingInt(r -> scoreDocs[r].doc));
+
+        final List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = null;
+        NumericDocValues values = null;
+        int leafEnd = 0;
+
+        for (int r : ranks) {
+            final int doc = scoreDocs[r].doc;
+
+            // move to the segment of the document, whose column is read from its start
+            if (leaf == null || doc >= leafEnd) {
+                leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                leafEnd = leaf.docBase + leaf.reader().maxDoc();
+                final FieldInfo info = leaf.reader().getFieldInfos().fieldInfo(ParsedDocument.FIELDS.SENTIMENT);
+                values = info != null && info.getDocValuesType() == DocValuesType.NUMERIC
+                        ? DocValues.getNumeric(leaf.reader(), ParsedDocument.FIELDS.SENTIMENT) : null;
+            }
+
+            if (values == null) {
+                sentiments[r] = getNewScore(reader.document(doc));
+            } else if (values.advanceExact(doc - leaf.docBase)) {
+                sentiments[r] = Float.intBitsToFloat((int) values.longValue());
+            }
+        }
+
+        return sentiments;
+    }
+
     /**
      * Calculates the sentiment analysis on the current document.
      *
@@ -84,11 +162,7 @@ public class JPPReScorer {
      * @throws IOException if something goes wrong
      */
     private float getNewScore(Document doc) throws IOException {
-        String docPremises = doc.get(ParsedDocument.FIELDS.PREMISES);
-        SentimentAnalyzer sentimentAnalyzer = new SentimentAnalyzer(docPremises);
-        sentimentAnalyzer.analyze();
-        Map<String, Float> scoreMap = sentimentAnalyzer.getPolarity();
-        return scoreMap.get("compound");
+        return AnalyzerUtil.sentiment(doc.get(ParsedDocument.FIELDS.PREMISES));
     }
 
     /**
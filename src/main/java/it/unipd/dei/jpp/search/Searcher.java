@@ -19,10 +19,17 @@ package it.unipd.dei.jpp.search;
 import it.unipd.dei.jpp.analyze.*;
 import it.unipd.dei.jpp.parse.JPPQueryParser;
 import it.unipd.dei.jpp.parse.ParsedDocument;
+import it.unipd.dei.jpp.utils.SynonymDictionary;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.benchmark.quality.QualityQuery;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.similarities.BM25Similarity;
@@ -39,6 +46,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Searches a document collection.
@@ -49,6 +60,16 @@ import java.util.*;
  */
 public class Searcher {
 
+    /**
+     * The number of topics per thread which can be searched ahead of the oldest one not written yet
+     */
+    private static final int PARALLEL_TOPICS_PER_THREAD = 4;
+
+    /**
+     * The fields loaded from the retrieved documents indexed without the identifier column
+     */
+    private static final Set<String> ID_FIELD = Set.of(ParsedDocument.FIELDS.ID);
+
     /**
      * The fields of the typical TREC topics.
      *
@@ -92,7 +113,12 @@ public class Searcher {
     /**
      * The index searcher.
      */
-    private final IndexSearcher searcher;
+    private IndexSearcher searcher;
+
+    /**
+     * The pool searching the slices of the index, or {@code null} if the index is searched by the calling thread.
+     */
+    private ExecutorService slicePool = null;
 
     /**
      * The topics to be searched
@@ -109,6 +135,30 @@ public class Searcher {
      */
     private final int maxDocsRetrieved;
 
+    /**
+     * The number of threads searching for the topics.
+     */
+    private int threads = 1;
+
+    /**
+     * The synonyms used to expand the queries, or {@code null} for no expansion.
+     */
+    private SynonymDictionary synonyms = null;
+
+    /**
+     * The weight of the synonyms in the expanded queries.
+     */
+    private float synonymBoost;
+
+    /**
+     * The number of first retrieved documents re-ranked by sentiment, or 0 for no re-ranking.
+     */
+    private int reRankTopN = 0;
+
+    /**
+     * The scorer computing the sentiment at query time for re-ranking, or {@code null} to read the indexed one.
+     */
+    private SentimentScorer sentimentScorer = null;
 
     /**
      * Creates a new searcher.
@@ -261,68 +311,165 @@ public class Searcher {
     }
 
     /**
-     * /** Searches for the specified topics.
+     * Searches for the topics on the given number of threads, sharing the same {@code IndexSearcher}, which is
+     * thread-safe. The run is the same as with a single thread: the results are written in topic order, in the same
+     * format.
+     * <p>
+     * It must be invoked before {@link #search()}.
      *
-     * @throws IOException if something goes wrong while searching.
+     * @param threads the number of threads searching for the topics.
+     * @throws IllegalArgumentException if {@code threads} is less than or equal to zero.
      */
-    public void search() throws IOException {
-        System.out.printf("%n#### Start searching ####%n");
+    public void setThreads(final int threads) {
 
-        // the start time of the searching
-        final long start = System.currentTimeMillis();
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of searching threads cannot be less than or equal to zero.");
+        }
 
-        final Set<String> idField = new HashSet<>();
-        idField.add(ParsedDocument.FIELDS.ID);
+        this.threads = threads;
+    }
 
-        BooleanQuery.Builder bq;
-        Query q;
-        TopDocs docs;
-        ScoreDoc[] sd;
-        String docID;
+    /**
+     * Searches each query on the given number of threads, splitting the index into slices of whole segments, so that
+     * the latency of a long query is bounded by its largest slice rather than by the whole index; an index with a
+     * single segment is still searched on a single thread. It can be combined with {@link #setThreads(int)}, trading
+     * throughput for latency. At the end of the search the time spent on each slice is printed.
+     * <p>
+     * It must be invoked before {@link #search()}.
+     *
+     * @param threads             the number of threads searching the slices of each query.
+     * @param maxDocsPerSlice     the maximum number of documents of a slice; a larger segment is a slice on its own.
+     * @param maxSegmentsPerSlice the maximum number of segments of a slice.
+     * @throws IllegalArgumentException if any of the parameters is less than or equal to zero.
+     */
+    public void setSegmentParallelism(final int threads, final int maxDocsPerSlice, final int maxSegmentsPerSlice) {
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of slice threads cannot be less than or equal to zero.");
+        }
 
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final IndexSearcher sliced;
         try {
-            for (QualityQuery t : topics) {
-                System.out.printf("Searching for topic %s.%n", t.getQueryID());
+            sliced = new SlicedIndexSearcher(reader, pool, maxDocsPerSlice, maxSegmentsPerSlice);
+        } catch (RuntimeException e) {
+            pool.shutdownNow();
+            throw e;
+        }
+        sliced.setSimilarity(searcher.getSimilarity());
 
-                bq = new BooleanQuery.Builder();
+        if (slicePool != null) {
+            slicePool.shutdownNow();
+        }
+        slicePool = pool;
+        searcher = sliced;
+    }
 
-                // Uncomment these lines to use query expansion with synonyms from WordNet
+    /**
+     * Expands the queries with the synonyms of their terms, looked up in a dictionary compiled from WordNet by {@link
+     * SynonymDictionary#compile(Path, Path)}. The dictionary is memory-mapped, so that opening it costs almost nothing,
+     * and closed at the end of the search.
+     * <p>
+     * It must be invoked before {@link #search()}.
+     *
+     * @param dictionaryPath the path to the synonym dictionary file.
+     * @param synonymBoost   the weight of the synonyms, greater than 0 and at most 1.
+     * @throws NullPointerException     if {@code dictionaryPath} is {@code null}.
+     * @throws IllegalArgumentException if {@code dictionaryPath} is empty or cannot be opened, or {@code synonymBoost}
+     *                                  is not greater than 0 and at most 1.
+     */
+    public void setSynonyms(final String dictionaryPath, final float synonymBoost) {
 
-                // Load synonyms from the WordNet file
-                // SynonymMap synonyms = loadSynonyms("wn_s.pl");
-                // Crate a query passing the weight to assign to synonyms
-                // Query currentQuery = qp.parse(t.getValue(TOPIC_FIELDS.TITLE), synonyms, 1f, 0.4f);
+        if (dictionaryPath == null) {
+            throw new NullPointerException("Synonym dictionary path cannot be null.");
+        }
 
-                // Query only on premises field without using synonyms
-                // Query currentQuery = qp.parse(t.getValue(TOPIC_FIELDS.TITLE));
+        if (dictionaryPath.isEmpty()) {
+            throw new IllegalArgumentException("Synonym dictionary path cannot be empty.");
+        }
+
+        if (!(synonymBoost > 0f && synonymBoost <= 1f)) {
+            throw new IllegalArgumentException("Synonym boost must be greater than 0 and at most 1.");
+        }
 
-                // Query with multi fields and weights, without using synonyms
-                Query currentQuery = qp.multiParse(t.getValue(TOPIC_FIELDS.TITLE));
+        final Path dictionary = Paths.get(dictionaryPath);
+        try {
+            final SynonymDictionary d = SynonymDictionary.open(dictionary);
+            if (synonyms != null) {
+                synonyms.close();
+            }
+            synonyms = d;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(String.format("Unable to open the synonym dictionary %s: %s.",
+                    dictionary.toAbsolutePath(), e.getMessage()), e);
+        }
 
-                bq.add(currentQuery, BooleanClause.Occur.SHOULD);
+        this.synonymBoost = synonymBoost;
+    }
 
-                q = bq.build();
+    /**
+     * Re-ranks the first retrieved documents of each topic by the sentiment of their premises, see {@link JPPReScorer}.
+     * The sentiment is read from the index if it was indexed (see {@link
+     * it.unipd.dei.jpp.index.DirectoryIndexer#setSentiment(boolean)}), otherwise, or if a scorer is given, computed at
+     * query time by the scorer, which caches it across topics. The scorer is not closed by the search, so that it can
+     * be shared by many searches; its report is printed at the end of the search.
+     * <p>
+     * It must be invoked before {@link #search()}.
+     *
+     * @param topN   the number of first retrieved documents to be re-ranked.
+     * @param scorer the scorer computing the sentiment at query time, or {@code null} to read the indexed one, if any.
+     * @throws IllegalArgumentException if {@code topN} is less than or equal to zero.
+     */
+    public void setReRanking(final int topN, final SentimentScorer scorer) {
 
-                docs = searcher.search(q, maxDocsRetrieved);
-                sd = docs.scoreDocs;
+        if (topN <= 0) {
+            throw new IllegalArgumentException(
+                    "The number of documents to be re-ranked cannot be less than or equal to zero.");
+        }
 
-                // Uncomment these lines to re-rank the first 30 documents using sentiment analysis
-                /*
-                docs = new JPPReScorer(reader, docs, 30).reScore();
-                sd = docs.scoreDocs;
-                */
+        this.reRankTopN = topN;
+        this.sentimentScorer = scorer;
+    }
 
-                for (int i = 0, n = sd.length; i < n; i++) {
-                    docID = reader.document(sd[i].doc, idField).get(ParsedDocument.FIELDS.ID);
-                    run.printf(Locale.ENGLISH, "%s Q0 %s %d %.6f %s%n", t.getQueryID(), docID, i, sd[i].score, runID);
+    /**
+     * /** Searches for the specified topics.
+     *
+     * @throws IOException if something goes wrong while searching.
+     */
+    public void search() throws IOException {
+        System.out.printf("%n#### Start searching ####%n");
+
+        // the start time of the searching
+        final long start = System.currentTimeMillis();
+
+        try {
+            if (threads == 1) {
+                for (QualityQuery t : topics) {
+                    run.print(search(t));
+                    run.flush();
                 }
-                run.flush();
+            } else {
+                searchParallel();
             }
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
             run.close();
             reader.close();
+            if (synonyms != null) {
+                synonyms.close();
+            }
+            if (slicePool != null) {
+                slicePool.shutdownNow();
+            }
+        }
+
+        if (searcher instanceof SlicedIndexSearcher) {
+            System.out.printf("%n#### Slices ####%n%s", ((SlicedIndexSearcher) searcher).report());
+        }
+
+        if (sentimentScorer != null) {
+            System.out.printf("%n#### Sentiment ####%n%s", sentimentScorer.report());
         }
 
         /*
@@ -333,6 +480,136 @@ public class Searcher {
         System.out.printf("%n#### Searching complete ####%n");
     }
 
+    /**
+     * Searches for the topics on {@code threads} workers, writing their results in topic order.
+     * <p>
+     * At most {@link #PARALLEL_TOPICS_PER_THREAD} topics per thread are searched ahead of the oldest one not written
+     * yet, so that the results waiting to be written stay bounded also for large batches of topics.
+     *
+     * @throws Exception if something goes wrong while searching.
+     */
+    private void searchParallel() throws Exception {
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final Deque<Future<String>> pending = new ArrayDeque<>();
+        final int window = threads * PARALLEL_TOPICS_PER_THREAD;
+
+        try {
+            int next = 0;
+            while (next < topics.length || !pending.isEmpty()) {
+
+                // keep the workers busy, up to the window
+                while (next < topics.length && pending.size() < window) {
+                    final QualityQuery t = topics[next++];
+                    pending.add(pool.submit(() -> search(t)));
+                }
+
+                // write the results of the oldest topic, waiting for them if needed
+                try {
+                    run.print(pending.remove().get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                run.flush();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Searches for a topic. Safe to be called concurrently.
+     *
+     * @param t the topic.
+     * @return the lines of the run for the topic, in the TREC format.
+     * @throws Exception if something goes wrong while searching.
+     */
+    private String search(final QualityQuery t) throws Exception {
+        System.out.printf("Searching for topic %s.%n", t.getQueryID());
+
+        final BooleanQuery.Builder bq = new BooleanQuery.Builder();
+
+        // Query only on premises field without using synonyms
+        // Query currentQuery = qp.parse(t.getValue(TOPIC_FIELDS.TITLE));
+
+        // Query with multi fields and weights, expanded with synonyms from WordNet if set, see setSynonyms
+        Query currentQuery = synonyms != null
+                ? qp.parse(t.getValue(TOPIC_FIELDS.TITLE), synonyms, synonymBoost)
+                : qp.multiParse(t.getValue(TOPIC_FIELDS.TITLE));
+
+        bq.add(currentQuery, BooleanClause.Occur.SHOULD);
+
+        final Query q = bq.build();
+
+        TopDocs docs = searcher.search(q, maxDocsRetrieved);
+        ScoreDoc[] sd = docs.scoreDocs;
+
+        // Re-rank the first documents using sentiment analysis, see setReRanking
+        if (reRankTopN > 0) {
+            docs = new JPPReScorer(reader, docs, reRankTopN, sentimentScorer).reScore();
+            sd = docs.scoreDocs;
+        }
+
+        final String[] docIDs = resolveIDs(reader, sd, sd.length);
+
+        final StringBuilder lines = new StringBuilder(sd.length * 64);
+        final Formatter f = new Formatter(lines, Locale.ENGLISH);
+        for (int i = 0, n = sd.length; i < n; i++) {
+            f.format("%s Q0 %s %d %.6f %s%n", t.getQueryID(), docIDs[i], i, sd[i].score, runID);
+        }
+        return lines.toString();
+    }
+
+    /**
+     * Resolves the identifiers of the retrieved documents from the identifier column of the index, visiting the hits in
+     * document order, so that each segment is read in a single forward pass without loading any stored field. Segments
+     * indexed without the column, by older versions, fall back to the stored identifier. Safe to be called
+     * concurrently.
+     *
+     * @param reader the reader of the index the documents were retrieved from.
+     * @param sd     the retrieved documents.
+     * @param n      the number of first retrieved documents whose identifier has to be resolved.
+     * @return the identifier of each of the first {@code n} retrieved documents, in the same order.
+     * @throws IOException if something goes wrong while reading the index.
+     */
+    static String[] resolveIDs(final IndexReader reader, final ScoreDoc[] sd, final int n) throws IOException {
+
+        final String[] docIDs = new String[n];
+
+        // the ranks of the hits, by document
+        final Integer[] ranks = new Integer[n];
+        for (int i = 0; i < ranks.length; i++) {
+            ranks[i] = i;
+        }
+        Arrays.sort(ranks, Comparator.comparingInt(r -> sd[r].doc));
+
+        final List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = null;
+        SortedDocValues ids = null;
+        int leafEnd = 0;
+
+        for (int r : ranks) {
+            final int doc = sd[r].doc;
+
+            // move to the segment of the document, whose column is read from its start
+            if (leaf == null || doc >= leafEnd) {
+                leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                leafEnd = leaf.docBase + leaf.reader().maxDoc();
+                final FieldInfo info = leaf.reader().getFieldInfos().fieldInfo(ParsedDocument.FIELDS.ID);
+                ids = info != null && info.getDocValuesType() == DocValuesType.SORTED
+                        ? DocValues.getSorted(leaf.reader(), ParsedDocument.FIELDS.ID) : null;
+            }
+
+            if (ids != null && ids.advanceExact(doc - leaf.docBase)) {
+                docIDs[r] = ids.lookupOrd(ids.ordValue()).utf8ToString();
+            } else {
+                docIDs[r] = reader.document(doc, ID_FIELD).get(ParsedDocument.FIELDS.ID);
+            }
+        }
+
+        return docIDs;
+    }
+
     /**
      * Main Only for test Purpose
      */
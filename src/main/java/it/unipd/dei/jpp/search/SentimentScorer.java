@@ -0,0 +1,452 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.search;
+
+import it.unipd.dei.jpp.parse.ParsedDocument;
+import it.unipd.dei.jpp.utils.AnalyzerUtil;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.ScoreDoc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe service computing the sentiment of the premises of the retrieved arguments at query time, used by
+ * {@link JPPReScorer} in place of the sentiment indexed by {@link it.unipd.dei.jpp.index.DirectoryIndexer#setSentiment(boolean)},
+ * e.g. when the sentiment function has changed and the index cannot be rebuilt.
+ * <p>
+ * The sentiment of each argument is cached, keyed by the identifier of the argument and the version of the sentiment
+ * function, so that an argument retrieved for many topics, or by many runs sharing the scorer, is analyzed only once;
+ * changing the function with {@link #setFunction(String, Sentiment)} keeps the cache, whose values computed by the old
+ * function are never returned again and are evicted as the cache fills up. Only the arguments not cached are loaded and
+ * analyzed, split among the threads of the scorer.
+ * <p>
+ * The cache is split into segments, each one locked on its own and evicting its least recently used arguments once
+ * full. The scorer records the cache hits and misses and the time spent scoring and analyzing; see {@link #report()}.
+ * It must be closed once no longer needed.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class SentimentScorer implements Closeable {
+
+    /**
+     * The version of the VADER compound sentiment computed by {@link AnalyzerUtil#sentiment(String)}, the default
+     * sentiment function.
+     */
+    public static final String VADER = "vader-compound-1.0";
+
+    /**
+     * The number of bits of the hash selecting the segment.
+     */
+    private static final int SEGMENT_BITS = 4;
+
+    /**
+     * The separator of the version and the identifier in the keys of the cache, which cannot be part of a version.
+     */
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    /**
+     * The fields loaded to analyze the premises.
+     */
+    private static final Set<String> PREMISES_FIELD = Set.of(ParsedDocument.FIELDS.PREMISES);
+
+    /**
+     * The sentiment function and its version.
+     */
+    private volatile Function function;
+
+    /**
+     * The number of threads analyzing the premises.
+     */
+    private final int threads;
+
+    /**
+     * The threads analyzing the premises, or {@code null} if they are analyzed by the calling thread.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * The segments of the cache.
+     */
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    /**
+     * The number of arguments found in the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of arguments analyzed and added to the cache.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * The number of invocations of {@link #score(IndexReader, ScoreDoc[], int)}.
+     */
+    private final LongAdder calls = new LongAdder();
+
+    /**
+     * The nanoseconds spent in {@link #score(IndexReader, ScoreDoc[], int)}.
+     */
+    private final LongAdder callNanos = new LongAdder();
+
+    /**
+     * The nanoseconds spent loading and analyzing the premises, summed over the threads.
+     */
+    private final LongAdder analysisNanos = new LongAdder();
+
+    /**
+     * Creates a new scorer computing the VADER compound sentiment, see {@link AnalyzerUtil#sentiment(String)}.
+     *
+     * @param threads    the number of threads analyzing the premises; with 1 they are analyzed by the calling thread.
+     * @param maxEntries the maximum number of cached arguments.
+     * @throws IllegalArgumentException if {@code threads} or {@code maxEntries} are less than or equal to zero.
+     */
+    public SentimentScorer(final int threads, final int maxEntries) {
+        this(VADER, AnalyzerUtil::sentiment, threads, maxEntries);
+    }
+
+    /**
+     * Creates a new scorer.
+     *
+     * @param version    the version of the sentiment function, identifying the values it computes.
+     * @param function   the sentiment function.
+     * @param threads    the number of threads analyzing the premises; with 1 they are analyzed by the calling thread.
+     * @param maxEntries the maximum number of cached arguments.
+     * @throws NullPointerException     if {@code version} or {@code function} are {@code null}.
+     * @throws IllegalArgumentException if {@code version} is empty, or {@code threads} or {@code maxEntries} are less
+     *                                  than or equal to zero.
+     */
+    public SentimentScorer(final String version, final Sentiment function, final int threads, final int maxEntries) {
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The number of scoring threads cannot be less than or equal to zero.");
+        }
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("The maximum number of cached arguments must be greater than zero.");
+        }
+
+        setFunction(version, function);
+
+        this.threads = threads;
+        this.pool = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+
+        final int perSegment = Math.max(1, maxEntries / segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Changes the sentiment function. The cached values of the previous function are no longer returned.
+     *
+     * @param version  the version of the sentiment function, identifying the values it computes.
+     * @param function the sentiment function.
+     * @throws NullPointerException     if {@code version} or {@code function} are {@code null}.
+     * @throws IllegalArgumentException if {@code version} is empty or contains the character {@code \u0000}.
+     */
+    public void setFunction(final String version, final Sentiment function) {
+
+        if (version == null) {
+            throw new NullPointerException("Sentiment function version cannot be null.");
+        }
+
+        if (version.isEmpty() || version.indexOf(KEY_SEPARATOR) != -1) {
+            throw new IllegalArgumentException("Sentiment function version cannot be empty or contain \\u0000.");
+        }
+
+        if (function == null) {
+            throw new NullPointerException("Sentiment function cannot be null.");
+        }
+
+        this.function = new Function(version, function);
+    }
+
+    /**
+     * Returns the sentiment of the first retrieved documents, taking the cached ones and analyzing the premises of the
+     * others, concurrently. Safe to be called concurrently.
+     *
+     * @param reader    the reader of the index the documents were retrieved from.
+     * @param scoreDocs the retrieved documents.
+     * @param n         the number of first documents whose sentiment has to be computed.
+     * @return the sentiment of each of the first {@code n} documents, in the same order.
+     * @throws IOException if something goes wrong while reading the index or analyzing the premises.
+     */
+    public float[] score(final IndexReader reader, final ScoreDoc[] scoreDocs, final int n) throws IOException {
+        final long start = System.nanoTime();
+
+        // the same function for all the documents, even if it is changed meanwhile
+        final Function f = function;
+
+        final float[] sentiments = new float[n];
+        final String[] ids = Searcher.resolveIDs(reader, scoreDocs, n);
+        final List<Integer> missing = new ArrayList<>();
+
+        for (int r = 0; r < n; r++) {
+            final Float s = segment(ids[r]).lookup(f.key(ids[r]));
+            if (s != null) {
+                sentiments[r] = s;
+                hits.increment();
+            } else {
+                missing.add(r);
+            }
+        }
+
+        try {
+            if (pool == null || missing.size() < 2) {
+                analyze(reader, scoreDocs, ids, missing, f, sentiments);
+            } else {
+                // contiguous chunks of ranks, so that each thread loads its documents in rank order
+                final int chunks = Math.min(threads, missing.size());
+                final List<Future<Void>> pending = new ArrayList<>(chunks);
+                for (int c = 0; c < chunks; c++) {
+                    final List<Integer> chunk = missing.subList(c * missing.size() / chunks,
+                            (c + 1) * missing.size() / chunks);
+                    pending.add(pool.submit(() -> {
+                        analyze(reader, scoreDocs, ids, chunk, f, sentiments);
+                        return null;
+                    }));
+                }
+
+                for (Future<Void> p : pending) {
+                    try {
+                        p.get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof IOException) {
+                            throw (IOException) e.getCause();
+                        }
+                        if (e.getCause() instanceof RuntimeException) {
+                            throw (RuntimeException) e.getCause();
+                        }
+                        throw new IllegalStateException(e.getCause());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while scoring the sentiment.", e);
+                    }
+                }
+            }
+        } finally {
+            callNanos.add(System.nanoTime() - start);
+            calls.increment();
+        }
+
+        return sentiments;
+    }
+
+    /**
+     * Returns a report of the scoring: invocations and their mean latency, cache hits and misses, mean time to analyze
+     * an argument and cached arguments.
+     *
+     * @return the report.
+     */
+    public String report() {
+        final long c = calls.sum();
+        final long h = hits.sum();
+        final long m = misses.sum();
+        final double ms = callNanos.sum() / 1E6;
+
+        long entries = 0;
+        for (Segment s : segments) {
+            synchronized (s) {
+                entries += s.size();
+            }
+        }
+
+        return String.format("%d invocation(s), %.1f ms in total, %.3f ms mean latency; %d hit(s), %d miss(es) "
+                        + "(%.1f%% hit rate), %.3f ms mean analysis; %d argument(s) cached%n", c, ms, ms / Math.max(1, c),
+                h, m, 100.0 * h / Math.max(1, h + m), analysisNanos.sum() / 1E6 / Math.max(1, m), entries);
+    }
+
+    /**
+     * Returns the number of arguments found in the cache.
+     *
+     * @return the number of arguments found in the cache.
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of arguments analyzed.
+     *
+     * @return the number of arguments analyzed.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Loads and analyzes the premises of some documents, caching their sentiment.
+     *
+     * @param reader     the reader of the index.
+     * @param scoreDocs  the retrieved documents.
+     * @param ids        the identifiers of the retrieved documents.
+     * @param ranks      the ranks of the documents to be analyzed.
+     * @param f          the sentiment function.
+     * @param sentiments the sentiment of the retrieved documents, filled at the given ranks.
+     * @throws IOException if something goes wrong while reading the index or analyzing the premises.
+     */
+    private void analyze(final IndexReader reader, final ScoreDoc[] scoreDocs, final String[] ids,
+                         final List<Integer> ranks, final Function f, final float[] sentiments) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            for (int r : ranks) {
+                final String premises = reader.document(scoreDocs[r].doc, PREMISES_FIELD)
+                        .get(ParsedDocument.FIELDS.PREMISES);
+
+                // concurrent misses of the same argument analyze it more than once, with the same result
+                sentiments[r] = f.sentiment.sentiment(premises);
+                segment(ids[r]).store(f.key(ids[r]), sentiments[r]);
+                misses.increment();
+            }
+        } finally {
+            analysisNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the segment of the cache of an argument.
+     *
+     * @param id the identifier of the argument.
+     * @return the segment of the argument.
+     */
+    private Segment segment(final String id) {
+        final int h = id.hashCode();
+        return segments[(h ^ (h >>> 16)) & (segments.length - 1)];
+    }
+
+    /**
+     * A sentiment function, computing the sentiment of the premises of an argument. It must be safe to be called
+     * concurrently.
+     */
+    @FunctionalInterface
+    public interface Sentiment {
+
+        /**
+         * Computes the sentiment of a text.
+         *
+         * @param text the text, possibly {@code null}.
+         * @return the sentiment of the text, from -1 (most negative) to 1 (most positive).
+         * @throws IOException if something goes wrong while analyzing the text.
+         */
+        float sentiment(String text) throws IOException;
+    }
+
+    /**
+     * A sentiment function together with its version.
+     */
+    private static final class Function {
+
+        /**
+         * The version of the function.
+         */
+        private final String version;
+
+        /**
+         * The function.
+         */
+        private final Sentiment sentiment;
+
+        /**
+         * Creates a new versioned function.
+         *
+         * @param version   the version of the function.
+         * @param sentiment the function.
+         */
+        private Function(final String version, final Sentiment sentiment) {
+            this.version = version;
+            this.sentiment = sentiment;
+        }
+
+        /**
+         * Returns the key of the cache of an argument scored by this function.
+         *
+         * @param id the identifier of the argument.
+         * @return the key of the argument.
+         */
+        private String key(final String id) {
+            return version + KEY_SEPARATOR + id;
+        }
+    }
+
+    /**
+     * A segment of the cache, guarded by its own lock, evicting its least recently used arguments once full.
+     */
+    private static final class Segment extends LinkedHashMap<String, Float> {
+
+        /**
+         * The maximum number of arguments of the segment.
+         */
+        private final int maxEntries;
+
+        /**
+         * Creates a new segment.
+         *
+         * @param maxEntries the maximum number of arguments of the segment.
+         */
+        private Segment(final int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        /**
+         * Returns the sentiment of an argument, if cached.
+         *
+         * @param key the key of the argument.
+         * @return the sentiment of the argument, or {@code null} if not cached.
+         */
+        private synchronized Float lookup(final String key) {
+            return get(key);
+        }
+
+        /**
+         * Caches the sentiment of an argument.
+         *
+         * @param key       the key of the argument.
+         * @param sentiment the sentiment of the argument.
+         */
+        private synchronized void store(final String key, final float sentiment) {
+            put(key, sentiment);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Float> eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.search;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Weight;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An {@code IndexSearcher} searching the slices of the index concurrently, with a configurable slicing, and timing
+ * each slice.
+ * <p>
+ * The segments are grouped, in index order, into slices of at most a given number of documents and segments; a
+ * segment larger than the maximum number of documents is a slice on its own. Each query searches its slices on the
+ * executor, so that its latency is bounded by the largest slice rather than by the whole index; since a segment is
+ * never split, an index with a single segment is always searched on a single thread. Keeping the slices in index order
+ * makes the results the same as searching on a single thread, since the hits of different slices with the same score
+ * are merged in slice order.
+ * <p>
+ * For each slice the searcher records the number of searches and the time taken, and for each query the time taken;
+ * see {@link #report()}.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+final class SlicedIndexSearcher extends IndexSearcher {
+
+    /**
+     * The index of the slice of each segment, by segment ordinal.
+     */
+    private final Map<Integer, Integer> sliceOf = new HashMap<>();
+
+    /**
+     * The number of searches of each slice.
+     */
+    private final LongAdder[] sliceSearches;
+
+    /**
+     * The nanoseconds spent searching each slice.
+     */
+    private final LongAdder[] sliceNanos;
+
+    /**
+     * The number of queries.
+     */
+    private final LongAdder queries = new LongAdder();
+
+    /**
+     * The nanoseconds spent searching the queries.
+     */
+    private final LongAdder queryNanos = new LongAdder();
+
+    /**
+     * Creates a new searcher.
+     *
+     * @param reader              the reader of the index.
+     * @param executor            the executor searching the slices.
+     * @param maxDocsPerSlice     the maximum number of documents of a slice.
+     * @param maxSegmentsPerSlice the maximum number of segments of a slice.
+     * @throws NullPointerException     if {@code reader} or {@code executor} are {@code null}.
+     * @throws IllegalArgumentException if {@code maxDocsPerSlice} or {@code maxSegmentsPerSlice} are less than or equal
+     *                                  to zero.
+     */
+    SlicedIndexSearcher(final IndexReader reader, final Executor executor, final int maxDocsPerSlice,
+                        final int maxSegmentsPerSlice) {
+        // the slicing is computed by the super constructor, before the fields of this class are set, so it travels
+        // with the executor
+        super(reader, new Slicing(executor, maxDocsPerSlice, maxSegmentsPerSlice));
+
+        final LeafSlice[] slices = getSlices();
+        sliceSearches = new LongAdder[slices.length];
+        sliceNanos = new LongAdder[slices.length];
+        for (int i = 0; i < slices.length; i++) {
+            sliceSearches[i] = new LongAdder();
+            sliceNanos[i] = new LongAdder();
+            for (LeafReaderContext leaf : slices[i].leaves) {
+                sliceOf.put(leaf.ord, i);
+            }
+        }
+    }
+
+    @Override
+    protected LeafSlice[] slices(final List<LeafReaderContext> leaves) {
+        final Slicing slicing = (Slicing) getExecutor();
+
+        final List<LeafSlice> slices = new ArrayList<>();
+        List<LeafReaderContext> group = new ArrayList<>();
+        long docs = 0;
+
+        for (LeafReaderContext leaf : leaves) {
+            group.add(leaf);
+            docs += leaf.reader().maxDoc();
+
+            if (docs >= slicing.maxDocsPerSlice || group.size() == slicing.maxSegmentsPerSlice) {
+                slices.add(new LeafSlice(group.toArray(new LeafReaderContext[0])));
+                group = new ArrayList<>();
+                docs = 0;
+            }
+        }
+
+        if (!group.isEmpty()) {
+            slices.add(new LeafSlice(group.toArray(new LeafReaderContext[0])));
+        }
+
+        return slices.toArray(new LeafSlice[0]);
+    }
+
+    @Override
+    public <C extends Collector, T> T search(final Query query, final CollectorManager<C, T> collectorManager)
+            throws IOException {
+        final long start = System.nanoTime();
+        try {
+            return super.search(query, collectorManager);
+        } finally {
+            queryNanos.add(System.nanoTime() - start);
+            queries.increment();
+        }
+    }
+
+    @Override
+    protected void search(final List<LeafReaderContext> leaves, final Weight weight, final Collector collector)
+            throws IOException {
+        final long start = System.nanoTime();
+        try {
+            super.search(leaves, weight, collector);
+        } finally {
+            // the leaves are either a slice or, with a single slice, the whole index
+            if (!leaves.isEmpty()) {
+                final int slice = sliceOf.get(leaves.get(0).ord);
+                sliceNanos[slice].add(System.nanoTime() - start);
+                sliceSearches[slice].increment();
+            }
+        }
+    }
+
+    /**
+     * Returns a report of the searches: for each slice, its segments and documents, the number of searches and the
+     * mean time taken; then the number of queries and their mean latency.
+     *
+     * @return the report.
+     */
+    String report() {
+        final LeafSlice[] slices = getSlices();
+        final StringBuilder sb = new StringBuilder(String.format("%-6s %9s %10s %9s %12s %10s%n", "slice",
+                "segments", "docs", "searches", "total (ms)", "mean (ms)"));
+
+        for (int i = 0; i < slices.length; i++) {
+            long docs = 0;
+            for (LeafReaderContext leaf : slices[i].leaves) {
+                docs += leaf.reader().maxDoc();
+            }
+            final long n = sliceSearches[i].sum();
+            final double ms = sliceNanos[i].sum() / 1E6;
+            sb.append(String.format("%-6d %9d %10d %9d %12.1f %10.3f%n", i, slices[i].leaves.length, docs, n, ms,
+                    ms / Math.max(1, n)));
+        }
+
+        final long n = queries.sum();
+        final double ms = queryNanos.sum() / 1E6;
+        sb.append(String.format("%d quer(y/ies), %.1f ms in total, %.3f ms mean latency%n", n, ms, ms / Math.max(1, n)));
+        return sb.toString();
+    }
+
+    /**
+     * The executor searching the slices, carrying the slicing parameters to {@link #slices(List)}.
+     */
+    private static final class Slicing implements Executor {
+
+        /**
+         * The executor the slices are searched on.
+         */
+        private final Executor executor;
+
+        /**
+         * The maximum number of documents of a slice.
+         */
+        private final int maxDocsPerSlice;
+
+        /**
+         * The maximum number of segments of a slice.
+         */
+        private final int maxSegmentsPerSlice;
+
+        /**
+         * Creates a new executor.
+         *
+         * @param executor            the executor the slices are searched on.
+         * @param maxDocsPerSlice     the maximum number of documents of a slice.
+         * @param maxSegmentsPerSlice the maximum number of segments of a slice.
+         */
+        private Slicing(final Executor executor, final int maxDocsPerSlice, final int maxSegmentsPerSlice) {
+
+            if (executor == null) {
+                throw new NullPointerException("Executor cannot be null.");
+            }
+
+            if (maxDocsPerSlice <= 0) {
+                throw new IllegalArgumentException(
+                        "The maximum number of documents per slice cannot be less than or equal to zero.");
+            }
+
+            if (maxSegmentsPerSlice <= 0) {
+                throw new IllegalArgumentException(
+                        "The maximum number of segments per slice cannot be less than or equal to zero.");
+            }
+
+            this.executor = executor;
+            this.maxDocsPerSlice = maxDocsPerSlice;
+            this.maxSegmentsPerSlice = maxSegmentsPerSlice;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            executor.execute(command);
+        }
+    }
+
+}
@@ -15,20 +15,21 @@
  */
 package it.unipd.dei.jpp.utils;
 
+import com.vader.sentiment.analyzer.SentimentAnalyzer;
 import it.unipd.dei.jpp.parse.ParsedDocument;
-import opennlp.tools.sentdetect.SentenceModel;
-import opennlp.tools.tokenize.TokenizerModel;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.WordlistLoader;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.opennlp.tools.NLPSentenceDetectorOp;
 import org.apache.lucene.analysis.opennlp.tools.NLPTokenizerOp;
 import org.apache.lucene.analysis.tokenattributes.*;
 import org.apache.lucene.wordnet.SynonymMap;
 
 import java.io.*;
-import java.util.Objects;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Utils used in various classes
@@ -40,15 +41,11 @@ import java.util.Objects;
 public class AnalyzerUtil {
 
     /**
-     * The class loader of this class. Needed for reading files from the {@code resource} directory.
-     */
-    private static final ClassLoader CL = AnalyzerUtil.class.getClassLoader();
-
-    /**
-     * Loads the required stop list among those available in the {@code resources} folder.
+     * Loads the required stop list among those available in the {@code resources} folder. The stop list is loaded
+     * only once and shared, see {@link LinguisticResources}.
      *
      * @param stopFile the name of the file containing the stop list.
-     * @return the stop list
+     * @return the stop list, unmodifiable.
      * @throws IllegalStateException if there is any issue while loading the stop list.
      */
     public static CharArraySet loadStopList(final String stopFile) {
@@ -58,51 +55,86 @@ public class AnalyzerUtil {
         if (stopFile.isEmpty())
             throw new IllegalArgumentException("Stop list file name cannot be empty.");
 
-        CharArraySet stopList;
+        return LinguisticResources.stopList(stopFile);
+    }
+
+    /**
+     * Wraps a text analyzer so that the keyword fields (see {@link ParsedDocument#KEYWORD_FIELDS}) are analyzed as a
+     * single token, left untouched, and only the other fields go through the text analyzer.
+     *
+     * @param text the analyzer of the text fields.
+     * @return the per-field analyzer.
+     * @throws NullPointerException if {@code text} is {@code null}.
+     */
+    public static Analyzer perFieldAnalyzer(final Analyzer text) {
 
-        try {
-            Reader in = new BufferedReader(new InputStreamReader(Objects.requireNonNull(CL.getResourceAsStream(stopFile))));
-            stopList = WordlistLoader.getWordSet(in);
-            in.close();
-        } catch (IOException e) {
-            throw new IllegalStateException(
-                    String.format("Unable to load the stop list %s: %s", stopFile, e.getMessage()), e);
+        if (text == null) {
+            throw new NullPointerException("Text analyzer cannot be null.");
         }
 
-        return stopList;
+        final Map<String, Analyzer> analyzers = new HashMap<>();
+        final Analyzer keyword = new KeywordAnalyzer();
+        for (String field : ParsedDocument.KEYWORD_FIELDS) {
+            analyzers.put(field, keyword);
+        }
+
+        return new PerFieldAnalyzerWrapper(text, analyzers);
     }
 
     /**
-     * Loads the required synonym map among those available in the {@code resources} folder.
+     * Loads the required synonym map among those available in the {@code resources} folder. The synonym map is
+     * loaded only once and shared, see {@link LinguisticResources}.
      *
      * @param fileName the name of the file containing the synonyms.
      * @return the stop list
      * @throws IllegalStateException if there is any issue while loading the synonym map.
      */
     public static SynonymMap loadSynonymMap(String fileName) throws IOException {
-        return new SynonymMap(Objects.requireNonNull(CL.getResourceAsStream(fileName)));
+        return LinguisticResources.synonymMap(fileName);
     }
 
     /**
-     * Loads the required {@code NLPTokenizerOp} among those available in the {@code resources} folder.
+     * Loads the required {@code NLPTokenizerOp} among those available in the {@code resources} folder. The model is
+     * loaded only once and shared, see {@link LinguisticResources}, while a new {@code NLPTokenizerOp}, which is not
+     * thread-safe, is returned at each invocation.
      *
      * @param fileName the name of the file of opennlp tokenizer.
      * @return the stop list
      * @throws IllegalStateException if there is any issue while loading the opennlp tokenizer.
      */
-    static NLPTokenizerOp loadOpenNLPTokenizer(String fileName) throws IOException {
-        return new NLPTokenizerOp(new TokenizerModel(Objects.requireNonNull(CL.getResourceAsStream(fileName))));
+    public static NLPTokenizerOp loadOpenNLPTokenizer(String fileName) throws IOException {
+        return new NLPTokenizerOp(LinguisticResources.tokenizerModel(fileName));
     }
 
     /**
-     * Loads the required sentence model among those available in the {@code resources} folder.
+     * Loads the required sentence model among those available in the {@code resources} folder. The model is loaded
+     * only once and shared, see {@link LinguisticResources}, while a new {@code NLPSentenceDetectorOp}, which is not
+     * thread-safe, is returned at each invocation.
      *
      * @param fileName the name of the file of the sentence model.
      * @return the stop list
      * @throws IllegalStateException if there is any issue while loading the sentence model.
      */
-    static NLPSentenceDetectorOp loadSentenceModel(String fileName) throws IOException {
-        return new NLPSentenceDetectorOp(new SentenceModel(Objects.requireNonNull(CL.getResourceAsStream(fileName))));
+    public static NLPSentenceDetectorOp loadSentenceModel(String fileName) throws IOException {
+        return new NLPSentenceDetectorOp(LinguisticResources.sentenceModel(fileName));
+    }
+
+    /**
+     * Computes the VADER compound sentiment of a text, from -1 (most negative) to 1 (most positive).
+     *
+     * @param text the text to analyze.
+     * @return the compound sentiment of the text, or 0 if the text is {@code null} or blank.
+     * @throws IOException if something goes wrong while analyzing the text.
+     */
+    public static float sentiment(final String text) throws IOException {
+
+        if (text == null || text.isBlank()) {
+            return 0f;
+        }
+
+        final SentimentAnalyzer sentimentAnalyzer = new SentimentAnalyzer(text);
+        sentimentAnalyzer.analyze();
+        return sentimentAnalyzer.getPolarity().get("compound");
     }
 
     /**
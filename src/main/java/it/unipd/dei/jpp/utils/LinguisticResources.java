@@ -0,0 +1,304 @@
+/*
+ * Copyright 2021 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.unipd.dei.jpp.utils;
+
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerModel;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.WordlistLoader;
+import org.apache.lucene.wordnet.SynonymMap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide registry of the linguistic resources in the {@code resources} directory: stop lists, synonym maps and
+ * OpenNLP models.
+ * <p>
+ * Each resource is loaded once, lazily, the first time it is requested, and the same immutable instance is then shared
+ * by all the threads; concurrent requests of a resource being loaded wait for it, while requests of other resources
+ * proceed. Stop lists are returned as unmodifiable sets; OpenNLP models are thread-safe, while the tools using them are
+ * not, so a tool must be created from the shared model for each thread (see {@link AnalyzerUtil}). A resource which
+ * fails to load is not cached, so that the next request tries again.
+ * <p>
+ * For each resource the registry records the time taken to load it, the bytes allocated while loading it, an upper
+ * bound of the memory it retains, and the number of requests; see {@link #report()}.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class LinguisticResources {
+
+    /**
+     * The class loader of this class. Needed for reading files from the {@code resource} directory.
+     */
+    private static final ClassLoader CL = LinguisticResources.class.getClassLoader();
+
+    /**
+     * The resources requested so far, by kind and file name.
+     */
+    private static final ConcurrentMap<String, Resource<?>> RESOURCES = new ConcurrentHashMap<>();
+
+    /**
+     * This class can be neither instantiated nor sub-classed.
+     */
+    private LinguisticResources() {
+        throw new AssertionError(String.format("No instances of %s allowed.", LinguisticResources.class.getName()));
+    }
+
+    /**
+     * Returns the stop list in a file of the {@code resources} directory.
+     *
+     * @param fileName the name of the file containing the stop list.
+     * @return the shared, unmodifiable, stop list.
+     * @throws NullPointerException     if {@code fileName} is {@code null}.
+     * @throws IllegalArgumentException if {@code fileName} is empty.
+     * @throws IllegalStateException    if the stop list cannot be loaded.
+     */
+    public static CharArraySet stopList(final String fileName) {
+        return get("stop list", fileName, in -> CharArraySet.unmodifiableSet(
+                WordlistLoader.getWordSet(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)))));
+    }
+
+    /**
+     * Returns the synonym map in a file of the {@code resources} directory, in the WordNet prolog format.
+     *
+     * @param fileName the name of the file containing the synonyms.
+     * @return the shared synonym map.
+     * @throws NullPointerException     if {@code fileName} is {@code null}.
+     * @throws IllegalArgumentException if {@code fileName} is empty.
+     * @throws IllegalStateException    if the synonym map cannot be loaded.
+     */
+    public static SynonymMap synonymMap(final String fileName) {
+        return get("synonym map", fileName, SynonymMap::new);
+    }
+
+    /**
+     * Returns the OpenNLP sentence model in a file of the {@code resources} directory.
+     *
+     * @param fileName the name of the file of the sentence model.
+     * @return the shared sentence model.
+     * @throws NullPointerException     if {@code fileName} is {@code null}.
+     * @throws IllegalArgumentException if {@code fileName} is empty.
+     * @throws IllegalStateException    if the sentence model cannot be loaded.
+     */
+    public static SentenceModel sentenceModel(final String fileName) {
+        return get("sentence model", fileName, SentenceModel::new);
+    }
+
+    /**
+     * Returns the OpenNLP tokenizer model in a file of the {@code resources} directory.
+     *
+     * @param fileName the name of the file of the tokenizer model.
+     * @return the shared tokenizer model.
+     * @throws NullPointerException     if {@code fileName} is {@code null}.
+     * @throws IllegalArgumentException if {@code fileName} is empty.
+     * @throws IllegalStateException    if the tokenizer model cannot be loaded.
+     */
+    public static TokenizerModel tokenizerModel(final String fileName) {
+        return get("tokenizer model", fileName, TokenizerModel::new);
+    }
+
+    /**
+     * Returns a report of the resources loaded so far: for each one, the time taken to load it, the bytes allocated
+     * while loading it, which bound the memory it retains, and the number of requests.
+     *
+     * @return the report.
+     */
+    public static String report() {
+        final StringBuilder sb = new StringBuilder(String.format("%-16s %-16s %10s %14s %10s%n", "resource", "file",
+                "load (ms)", "alloc (KB)", "requests"));
+
+        double nanos = 0;
+        long bytes = 0;
+        for (Resource<?> r : new TreeMap<String, Resource<?>>(RESOURCES).values()) {
+            synchronized (r) {
+                if (r.value == null) {
+                    continue;
+                }
+                sb.append(String.format("%-16s %-16s %10.2f %14s %10d%n", r.kind, r.fileName, r.loadNanos / 1E6,
+                        r.allocatedBytes < 0 ? "n/a" : Long.toString(r.allocatedBytes / 1024), r.requests.sum()));
+                nanos += r.loadNanos;
+                bytes += Math.max(0, r.allocatedBytes);
+            }
+        }
+
+        sb.append(String.format("%-33s %10.2f %14d%n", "total", nanos / 1E6, bytes / 1024));
+        return sb.toString();
+    }
+
+    /**
+     * Returns a resource, loading it if it is requested for the first time.
+     *
+     * @param kind     the kind of the resource.
+     * @param fileName the name of the file of the resource.
+     * @param loader   the loader of the resource.
+     * @param <T>      the type of the resource.
+     * @return the resource.
+     * @throws NullPointerException     if {@code fileName} is {@code null}.
+     * @throws IllegalArgumentException if {@code fileName} is empty.
+     * @throws IllegalStateException    if the resource cannot be loaded.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T get(final String kind, final String fileName, final Loader<T> loader) {
+
+        if (fileName == null) {
+            throw new NullPointerException(String.format("The %s file name cannot be null.", kind));
+        }
+        if (fileName.isEmpty()) {
+            throw new IllegalArgumentException(String.format("The %s file name cannot be empty.", kind));
+        }
+
+        final Resource<T> r = (Resource<T>) RESOURCES.computeIfAbsent(kind + ":" + fileName,
+                k -> new Resource<T>(kind, fileName));
+        r.requests.increment();
+        return r.get(loader);
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread, if the JVM can measure them.
+     *
+     * @return the bytes allocated so far by the current thread, or {@code -1} if they cannot be measured.
+     */
+    private static long allocatedBytes() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+            if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled()) {
+                return t.getCurrentThreadAllocatedBytes();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Loads a resource from its stream.
+     *
+     * @param <T> the type of the resource.
+     */
+    @FunctionalInterface
+    private interface Loader<T> {
+
+        /**
+         * Loads a resource from its stream.
+         *
+         * @param in the stream of the resource.
+         * @return the resource.
+         * @throws IOException if the resource cannot be read.
+         */
+        T load(InputStream in) throws IOException;
+    }
+
+    /**
+     * A resource of the registry, loaded at most once.
+     *
+     * @param <T> the type of the resource.
+     */
+    private static final class Resource<T> {
+
+        /**
+         * The kind of the resource.
+         */
+        private final String kind;
+
+        /**
+         * The name of the file of the resource.
+         */
+        private final String fileName;
+
+        /**
+         * The number of requests of the resource.
+         */
+        private final LongAdder requests = new LongAdder();
+
+        /**
+         * The resource, or {@code null} if not loaded yet.
+         */
+        private volatile T value;
+
+        /**
+         * The nanoseconds taken to load the resource.
+         */
+        private long loadNanos;
+
+        /**
+         * The bytes allocated while loading the resource, or {@code -1} if they cannot be measured.
+         */
+        private long allocatedBytes;
+
+        /**
+         * Creates a new resource, not loaded yet.
+         *
+         * @param kind     the kind of the resource.
+         * @param fileName the name of the file of the resource.
+         */
+        private Resource(final String kind, final String fileName) {
+            this.kind = kind;
+            this.fileName = fileName;
+        }
+
+        /**
+         * Returns the resource, loading it if needed.
+         *
+         * @param loader the loader of the resource.
+         * @return the resource.
+         * @throws IllegalStateException if the resource cannot be loaded.
+         */
+        private T get(final Loader<T> loader) {
+
+            // fast path, without locking, once the resource is loaded
+            T v = value;
+            if (v != null) {
+                return v;
+            }
+
+            synchronized (this) {
+                if (value == null) {
+                    final long start = System.nanoTime();
+                    final long allocated = allocatedBytes();
+
+                    try (InputStream in = CL.getResourceAsStream(fileName)) {
+                        if (in == null) {
+                            throw new IllegalStateException(String.format("Unable to load the %s %s: file not found.",
+                                    kind, fileName));
+                        }
+                        v = loader.load(in);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(
+                                String.format("Unable to load the %s %s: %s", kind, fileName, e.getMessage()), e);
+                    }
+
+                    loadNanos = System.nanoTime() - start;
+                    allocatedBytes = allocated < 0 ? -1 : allocatedBytes() - allocated;
+                    value = v;
+                }
+                return value;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.unipd.dei.jpp.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An {@code InputStream} over a memory-mapped region of a file.
+ * <p>
+ * Bytes are copied straight from the pages of the file, which are usually already in the OS page cache, into the
+ * buffer of the caller, without any system call per read and without any intermediate buffer. Since a single mapping
+ * cannot exceed 2 GB, the region is mapped one segment at a time.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public class MappedFileInputStream extends InputStream {
+
+    /**
+     * The maximum size of a mapped segment.
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    /**
+     * The channel of the mapped file.
+     */
+    private final FileChannel ch;
+
+    /**
+     * The offset following the last byte of the region.
+     */
+    private final long end;
+
+    /**
+     * The offset of the first byte of the next segment to be mapped.
+     */
+    private long next;
+
+    /**
+     * The currently mapped segment.
+     */
+    private ByteBuffer segment = ByteBuffer.allocate(0);
+
+    /**
+     * Creates a new stream over a whole file.
+     *
+     * @param file the file to be mapped.
+     * @throws IOException if the file cannot be opened.
+     */
+    public MappedFileInputStream(final Path file) throws IOException {
+        this(file, 0, -1);
+    }
+
+    /**
+     * Creates a new stream over a region of a file.
+     *
+     * @param file  the file to be mapped.
+     * @param start the offset of the first byte of the region.
+     * @param end   the offset following the last byte of the region, or {@code -1} for the end of the file.
+     * @throws IOException              if the file cannot be opened.
+     * @throws IllegalArgumentException if the region is not within the file.
+     */
+    public MappedFileInputStream(final Path file, final long start, final long end) throws IOException {
+
+        if (file == null) {
+            throw new NullPointerException("File cannot be null.");
+        }
+
+        ch = FileChannel.open(file, StandardOpenOption.READ);
+
+        final long size = ch.size();
+        this.end = end < 0 ? size : end;
+
+        if (start < 0 || start > this.end || this.end > size) {
+            ch.close();
+            throw new IllegalArgumentException(
+                    String.format("Region %d-%d is not within file %s of %d bytes.", start, end, file, size));
+        }
+
+        this.next = start;
+    }
+
+    /**
+     * Maps the next segment, if the current one is exhausted.
+     *
+     * @return {@code false} if the end of the region has been reached.
+     * @throws IOException if the segment cannot be mapped.
+     */
+    private boolean fill() throws IOException {
+        if (segment.hasRemaining()) {
+            return true;
+        }
+        if (next >= end) {
+            return false;
+        }
+
+        final long length = Math.min(SEGMENT_SIZE, end - next);
+        segment = ch.map(FileChannel.MapMode.READ_ONLY, next, length);
+        next += length;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? segment.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, segment.remaining());
+        segment.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        final long inSegment = Math.min(n, segment.remaining());
+        segment.position(segment.position() + (int) inSegment);
+
+        // the following segments are not mapped at all
+        final long afterSegment = Math.min(n - inSegment, end - next);
+        next += afterSegment;
+        return inSegment + afterSegment;
+    }
+
+    @Override
+    public int available() {
+        return segment.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2021 University of Padua, Italy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.unipd.dei.jpp.utils;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.OffHeapFSTStore;
+import org.apache.lucene.util.fst.Util;
+import org.apache.lucene.wordnet.SynonymMap;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * A dictionary of synonyms compiled from the WordNet prolog file {@code wn_s.pl} into a finite state transducer, which
+ * maps each word to its synonyms.
+ * <p>
+ * Building a {@link SynonymMap} parses the whole prolog file and keeps every word and synonym on the heap, which takes
+ * seconds and tens of MB at each run. The dictionary is instead compiled once, offline, with {@link #compile(Path,
+ * Path)} or the {@link #main(String[])} method, and then opened with {@link #open(Path)}: the file is memory-mapped and
+ * the transducer is read in place, off the heap, so that opening it costs almost nothing and only the pages of the
+ * looked up words are ever read.
+ * <p>
+ * The synonyms are exactly those of {@link SynonymMap}: lowercase words made of letters only, sorted, and not
+ * including the word itself. A dictionary can be shared by many threads; it must be closed once no longer needed.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+public final class SynonymDictionary implements Closeable {
+
+    /**
+     * The name of the format of the dictionary file.
+     */
+    private static final String CODEC_NAME = "JPPSynonymDictionary";
+
+    /**
+     * The version of the format of the dictionary file.
+     */
+    private static final int VERSION = 0;
+
+    /**
+     * The separator of the synonyms of a word, which cannot be part of a word.
+     */
+    private static final char SEPARATOR = ' ';
+
+    /**
+     * The synonyms of a word not in the dictionary.
+     */
+    private static final String[] EMPTY = new String[0];
+
+    /**
+     * The directory of the dictionary file.
+     */
+    private final Directory directory;
+
+    /**
+     * The memory-mapped dictionary file.
+     */
+    private final IndexInput in;
+
+    /**
+     * The transducer from words to their synonyms.
+     */
+    private final FST<BytesRef> fst;
+
+    /**
+     * The number of words with synonyms.
+     */
+    private final int words;
+
+    /**
+     * Opens a compiled dictionary.
+     *
+     * @param directory the directory of the dictionary file.
+     * @param in        the memory-mapped dictionary file.
+     * @throws IOException if the file is not a dictionary or cannot be read.
+     */
+    private SynonymDictionary(final Directory directory, final IndexInput in) throws IOException {
+        this.directory = directory;
+        this.in = in;
+
+        // cheap check of a truncated file, without reading it all as a full checksum would do
+        CodecUtil.retrieveChecksum(in);
+        in.seek(0);
+
+        CodecUtil.checkHeader(in, CODEC_NAME, VERSION, VERSION);
+        words = in.readVInt();
+        fst = new FST<>(in, in, ByteSequenceOutputs.getSingleton(), new OffHeapFSTStore());
+    }
+
+    /**
+     * Opens a dictionary compiled by {@link #compile(Path, Path)}, memory-mapping it.
+     *
+     * @param dictionary the dictionary file.
+     * @return the dictionary.
+     * @throws NullPointerException if {@code dictionary} is {@code null}.
+     * @throws IOException          if the file is not a dictionary or cannot be read.
+     */
+    public static SynonymDictionary open(final Path dictionary) throws IOException {
+
+        if (dictionary == null) {
+            throw new NullPointerException("Synonym dictionary file cannot be null.");
+        }
+
+        final Path file = dictionary.toAbsolutePath();
+        final Directory directory = new MMapDirectory(file.getParent());
+        IndexInput in = null;
+        try {
+            in = directory.openInput(file.getFileName().toString(), IOContext.READ);
+            return new SynonymDictionary(directory, in);
+        } catch (IOException | RuntimeException e) {
+            if (in != null) {
+                in.close();
+            }
+            directory.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Compiles the WordNet prolog file {@code wn_s.pl} into a dictionary file, replacing it if it already exists.
+     *
+     * @param prolog     the WordNet prolog file.
+     * @param dictionary the dictionary file to be written.
+     * @return the number of words with synonyms.
+     * @throws NullPointerException if {@code prolog} or {@code dictionary} are {@code null}.
+     * @throws IOException          if the prolog file cannot be read or the dictionary file cannot be written.
+     */
+    public static int compile(final Path prolog, final Path dictionary) throws IOException {
+
+        if (prolog == null) {
+            throw new NullPointerException("WordNet prolog file cannot be null.");
+        }
+
+        if (dictionary == null) {
+            throw new NullPointerException("Synonym dictionary file cannot be null.");
+        }
+
+        // the synonyms are those of SynonymMap, which defines which words are valid and how they are normalized
+        final SynonymMap map;
+        try (InputStream is = Files.newInputStream(prolog)) {
+            map = new SynonymMap(is);
+        }
+
+        // the words of the prolog file, in the byte order required by the transducer
+        final TreeSet<BytesRef> words = new TreeSet<>();
+        try (BufferedReader r = Files.newBufferedReader(prolog, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                final int start = line.indexOf('\'');
+                final int end = line.lastIndexOf('\'');
+                if (line.startsWith("s(") && start < end) {
+                    words.add(new BytesRef(line.substring(start + 1, end).toLowerCase(Locale.ENGLISH)));
+                }
+            }
+        }
+
+        final Builder<BytesRef> builder = new Builder<>(FST.INPUT_TYPE.BYTE1,
+                ByteSequenceOutputs.getSingleton());
+        final IntsRefBuilder scratch = new IntsRefBuilder();
+        final StringBuilder sb = new StringBuilder();
+        int n = 0;
+
+        for (BytesRef word : words) {
+            final String[] synonyms = map.getSynonyms(word.utf8ToString());
+            if (synonyms.length == 0) {
+                continue;
+            }
+
+            sb.setLength(0);
+            for (String synonym : synonyms) {
+                if (sb.length() > 0) {
+                    sb.append(SEPARATOR);
+                }
+                sb.append(synonym);
+            }
+
+            builder.add(Util.toIntsRef(word, scratch), new BytesRef(sb));
+            n++;
+        }
+
+        final FST<BytesRef> fst = builder.finish();
+
+        final Path file = dictionary.toAbsolutePath();
+        try (Directory directory = FSDirectory.open(file.getParent())) {
+            final String name = file.getFileName().toString();
+            Files.deleteIfExists(file);
+
+            try (IndexOutput out = directory.createOutput(name, IOContext.DEFAULT)) {
+                CodecUtil.writeHeader(out, CODEC_NAME, VERSION);
+                out.writeVInt(n);
+                fst.save(out, out);
+                CodecUtil.writeFooter(out);
+            }
+        }
+
+        return n;
+    }
+
+    /**
+     * Returns the synonyms of a word, like {@link SynonymMap#getSynonyms(String)}.
+     *
+     * @param word the word, lowercase.
+     * @return the synonyms of the word, sorted; an empty array if the word has none.
+     * @throws IllegalStateException if the dictionary file cannot be read.
+     */
+    public String[] getSynonyms(final String word) {
+
+        final BytesRef synonyms;
+        try {
+            synonyms = Util.get(fst, new BytesRef(word));
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    String.format("Unable to look up the synonyms of %s: %s.", word, e.getMessage()), e);
+        }
+
+        if (synonyms == null) {
+            return EMPTY;
+        }
+
+        final List<String> result = new ArrayList<>();
+        final String s = synonyms.utf8ToString();
+        int start = 0;
+        for (int end; (end = s.indexOf(SEPARATOR, start)) != -1; start = end + 1) {
+            result.add(s.substring(start, end));
+        }
+        result.add(s.substring(start));
+
+        return result.toArray(EMPTY);
+    }
+
+    /**
+     * Returns the number of words with synonyms.
+     *
+     * @return the number of words with synonyms.
+     */
+    public int size() {
+        return words;
+    }
+
+    /**
+     * Returns the bytes of the dictionary kept on the heap; the transducer itself is memory-mapped.
+     *
+     * @return the bytes of the dictionary kept on the heap.
+     */
+    public long ramBytesUsed() {
+        return fst.ramBytesUsed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            directory.close();
+        }
+    }
+
+    /**
+     * Compiles the WordNet prolog file into a dictionary file and looks up some words.
+     *
+     * @param args {@code args[0]} contains the path to the WordNet prolog file {@code wn_s.pl}; {@code args[1]} the
+     *             path to the dictionary file to be written; the following ones, if any, words to be looked up.
+     * @throws IOException if something goes wrong while compiling or reading the dictionary.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2) {
+            System.out.printf("Usage: SynonymDictionary <wn_s.pl> <dictionary> [word...]%n");
+            return;
+        }
+
+        final Path prolog = Paths.get(args[0]);
+        final Path dictionary = Paths.get(args[1]);
+
+        long start = System.nanoTime();
+        final int n = compile(prolog, dictionary);
+        System.out.printf("%d word(s) with synonyms compiled in %.1f ms into %s (%d KB).%n", n,
+                (System.nanoTime() - start) / 1E6, dictionary, Files.size(dictionary) / 1024);
+
+        start = System.nanoTime();
+        try (SynonymDictionary d = open(dictionary)) {
+            System.out.printf("Dictionary opened in %.2f ms, %d bytes on the heap.%n",
+                    (System.nanoTime() - start) / 1E6, d.ramBytesUsed());
+
+            for (int i = 2; i < args.length; i++) {
+                System.out.printf("%s: %s%n", args[i], String.join(", ", d.getSynonyms(args[i])));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package it.unipd.dei.jpp.filter;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.en.EnglishPossessiveFilter;
+import org.apache.lucene.analysis.miscellaneous.LengthFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link ToucheTermFilter}, against the chain of filters it replaces.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+class ToucheTermFilterTest {
+
+    /**
+     * The minimum length of a term.
+     */
+    private static final int MIN = 3;
+
+    /**
+     * The maximum length of a term.
+     */
+    private static final int MAX = 20;
+
+    /**
+     * The chain of filters replaced by {@link ToucheTermFilter}.
+     */
+    private static final Analyzer CHAIN = new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            final Tokenizer source = new WhitespaceTokenizer();
+            TokenStream tokens = new LowerCaseFilter(source);
+            tokens = new MultipleCharsFilter(tokens);
+            tokens = new EnglishPossessiveFilter(tokens);
+            tokens = new LengthFilter(tokens, MIN, MAX);
+            return new TokenStreamComponents(source, tokens);
+        }
+    };
+
+    /**
+     * The fused filter.
+     */
+    private static final Analyzer FUSED = new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            final Tokenizer source = new WhitespaceTokenizer();
+            return new TokenStreamComponents(source, new ToucheTermFilter(source, MIN, MAX));
+        }
+    };
+
+    /**
+     * The filter produces the same terms, positions and offsets as the chain on the corner cases of each filter.
+     */
+    @Test
+    void sameTokensAsTheChain() throws IOException {
+        assertSameTokens("The DEBATE's nooooo Sooo aaa aaaa AAAb bbbS's it's its' x's dog’s cat＇s ");
+        assertSameTokens("ab abc abcd 's ''s s's 'S ’S aaaaaaaaaaaaaaaaaaaaaaaaaaaa abcdefghijklmnopqrstu "
+                + "abcdefghijklmnopqrst abcdefghijklmnopqrstuu ÀÀÀh İstanbul ΣΣΣ");
+        assertSameTokens("𐐀𐐀𐐀 𐐨𐐨abc");
+        assertSameTokens("");
+    }
+
+    /**
+     * The filter produces the same terms, positions and offsets as the chain on random text.
+     */
+    @Test
+    void sameTokensAsTheChainOnRandomText() throws IOException {
+
+        final char[] alphabet = {'a', 'A', 'b', 'B', 's', 'S', '\'', '’', '＇', 'É', 'é', 'İ',
+                ' ', ' ', '\n'};
+        final Random random = new Random(42);
+
+        for (int i = 0; i < 500; i++) {
+            final StringBuilder text = new StringBuilder();
+            final int length = random.nextInt(200);
+            for (int j = 0; j < length; j++) {
+                text.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+            assertSameTokens(text.toString());
+        }
+    }
+
+    /**
+     * Invalid lengths are rejected.
+     */
+    @Test
+    void invalidLengths() {
+        assertThrows(IllegalArgumentException.class, () -> new ToucheTermFilter(new WhitespaceTokenizer(), -1, 3));
+        assertThrows(IllegalArgumentException.class, () -> new ToucheTermFilter(new WhitespaceTokenizer(), 4, 3));
+    }
+
+    /**
+     * Asserts that the filter and the chain produce the same tokens for a text.
+     *
+     * @param text the text.
+     * @throws IOException if something goes wrong while analyzing the text.
+     */
+    private static void assertSameTokens(final String text) throws IOException {
+        assertEquals(tokens(CHAIN, text), tokens(FUSED, text), text);
+    }
+
+    /**
+     * Returns the terms, position increments and offsets of the tokens of a text.
+     *
+     * @param analyzer the analyzer.
+     * @param text     the text.
+     * @return the tokens, one for each string.
+     * @throws IOException if something goes wrong while analyzing the text.
+     */
+    private static List<String> tokens(final Analyzer analyzer, final String text) throws IOException {
+
+        final List<String> tokens = new ArrayList<>();
+
+        try (TokenStream stream = analyzer.tokenStream("body", text)) {
+            final CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            final PositionIncrementAttribute posInc = stream.addAttribute(PositionIncrementAttribute.class);
+            final OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(String.format("%s+%d[%d,%d]", term, posInc.getPositionIncrement(), offset.startOffset(),
+                        offset.endOffset()));
+            }
+            stream.end();
+            tokens.add(String.format("end+%d[%d]", posInc.getPositionIncrement(), offset.endOffset()));
+        }
+
+        return tokens;
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import it.unipd.dei.jpp.analyze.ToucheAnalyzerIndex;
+import it.unipd.dei.jpp.parse.ParsedDocument;
+import it.unipd.dei.jpp.parse.ToucheParser;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link DirectoryIndexer}: the parallel and pipelined indexing keep the documents of the sequential one, and
+ * the incremental indexing keeps the same documents as a full rebuild.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+class DirectoryIndexerTest {
+
+    /**
+     * The writer of the sources.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * The temporary directory of the test.
+     */
+    @TempDir
+    Path tmp;
+
+    /**
+     * The modification time, in seconds, of the last written source, increased at each write so that a rewritten
+     * source is always seen as changed.
+     */
+    private long clock = 1_000_000_000L;
+
+    /**
+     * Indexing on several threads, or through the pipeline, keeps the same copy of each duplicate document as the
+     * sequential indexing, and indexing on several threads also adds the documents in the same order.
+     */
+    @Test
+    void parallelIndexingKeepsTheSequentialDocuments() throws IOException {
+
+        final Path docs = Files.createDirectory(tmp.resolve("docs"));
+        writeSource(docs, "a", "", 0, 40);
+        writeSource(docs, "b", "", 30, 70);
+        writeSource(docs, "c", "", 60, 100);
+        writeSource(docs, "d", "", 0, 5);
+
+        final Path sequential = tmp.resolve("sequential");
+        index(docs, sequential, 1, false);
+
+        final Path parallel = tmp.resolve("parallel");
+        index(docs, parallel, 4, false);
+
+        assertEquals(100, contents(sequential).size());
+        assertEquals(ids(sequential), ids(parallel));
+        assertEquals(contents(sequential), contents(parallel));
+
+        final Path pipelined = tmp.resolve("pipelined");
+        final DirectoryIndexer i = indexer(docs, pipelined, 1);
+        i.setPipeline(2, 2, 2, 2);
+        i.index();
+
+        assertEquals(contents(sequential), contents(pipelined));
+    }
+
+    /**
+     * After each change of the corpus, the incremental indexing keeps the same documents as a full rebuild.
+     *
+     * @param threads the number of indexing threads.
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {1, 3})
+    void incrementalIndexingEqualsRebuild(final int threads) throws IOException {
+
+        final Path docs = Files.createDirectory(tmp.resolve("docs"));
+        final Path index = tmp.resolve("index");
+
+        writeSource(docs, "a", "", 1, 4);
+        writeSource(docs, "b", "", 3, 6);
+        writeSource(docs, "c", "", 5, 8, 1);
+        assertSameAsRebuild(docs, index, threads, "first indexing");
+
+        // a changed source keeps its copies of the documents of the preceding sources out of the index
+        writeSource(docs, "b", "v2", 3, 6);
+        assertSameAsRebuild(docs, index, threads, "changed source");
+
+        // the documents of a removed source are recovered from the following ones or dropped
+        Files.delete(docs.resolve("a.json"));
+        assertSameAsRebuild(docs, index, threads, "removed source");
+
+        // a document removed from a changed source is recovered from a following source
+        writeSource(docs, "b", "v3", 4, 5);
+        assertSameAsRebuild(docs, index, threads, "removed document");
+
+        // a new source preceding the others replaces their copies
+        writeSource(docs, "0", "", 5, 6, 3, 9);
+        assertSameAsRebuild(docs, index, threads, "new preceding source");
+
+        writeSource(docs, "a", "", 1, 4);
+        assertSameAsRebuild(docs, index, threads, "re-added source");
+
+        Files.delete(docs.resolve("0.json"));
+        assertSameAsRebuild(docs, index, threads, "removed preceding source");
+
+        assertSameAsRebuild(docs, index, threads, "no change");
+    }
+
+    /**
+     * A failed indexing leaves the last committed index as it was and releases the write lock.
+     */
+    @Test
+    void failedIndexingKeepsTheLastCommit() throws IOException {
+
+        final Path docs = Files.createDirectory(tmp.resolve("docs"));
+        final Path index = tmp.resolve("index");
+
+        writeSource(docs, "a", "", 0, 10);
+        index(docs, index, 2, true);
+        final SortedSet<String> committed = contents(index);
+
+        Files.writeString(docs.resolve("b.json"), "{\"arguments\":[{\"id\":\"zz\"}, 7]}");
+        assertThrows(IOException.class, () -> index(docs, index, 2, true));
+
+        assertEquals(committed, contents(index));
+        try (Directory dir = FSDirectory.open(index);
+             IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig())) {
+            assertEquals(committed.size(), writer.getDocStats().numDocs);
+        }
+    }
+
+    /**
+     * Updates an index incrementally and asserts that it holds the same documents as a full rebuild.
+     *
+     * @param docs    the directory of the corpus.
+     * @param index   the directory of the index updated incrementally.
+     * @param threads the number of indexing threads.
+     * @param step    the description of the change of the corpus.
+     * @throws IOException if something goes wrong while indexing.
+     */
+    private void assertSameAsRebuild(final Path docs, final Path index, final int threads, final String step)
+            throws IOException {
+
+        index(docs, index, threads, true);
+
+        final Path rebuilt = Files.createTempDirectory(tmp, "rebuilt");
+        index(docs, rebuilt, threads, false);
+
+        assertEquals(contents(rebuilt), contents(index), step);
+    }
+
+    /**
+     * Indexes a corpus.
+     *
+     * @param docs        the directory of the corpus.
+     * @param index       the directory of the index.
+     * @param threads     the number of indexing threads.
+     * @param incremental whether the index has to be updated incrementally.
+     * @throws IOException if something goes wrong while indexing.
+     */
+    private static void index(final Path docs, final Path index, final int threads, final boolean incremental)
+            throws IOException {
+        final DirectoryIndexer i = indexer(docs, index, threads);
+        i.setIncremental(incremental);
+        i.index();
+    }
+
+    /**
+     * Creates an indexer of a corpus.
+     *
+     * @param docs    the directory of the corpus.
+     * @param index   the directory of the index.
+     * @param threads the number of indexing threads.
+     * @return the indexer.
+     */
+    private static DirectoryIndexer indexer(final Path docs, final Path index, final int threads) {
+        return new DirectoryIndexer(new ToucheAnalyzerIndex(), new BM25Similarity(), 16, index.toString(),
+                docs.toString(), "json", "UTF-8", 100, ToucheParser.class, threads);
+    }
+
+    /**
+     * Writes a source of arguments whose premises tell the source and version they come from.
+     *
+     * @param docs the directory of the corpus.
+     * @param name the name of the source, without extension.
+     * @param tag  the version of the source.
+     * @param from the first identifier of a range of arguments.
+     * @param to   the identifier following the last one of the range.
+     * @param more further identifiers of arguments, after the range.
+     * @throws IOException if the source cannot be written.
+     */
+    private void writeSource(final Path docs, final String name, final String tag, final int from, final int to,
+                             final int... more) throws IOException {
+
+        final List<Integer> ids = new ArrayList<>();
+        for (int id = from; id < to; id++) {
+            ids.add(id);
+        }
+        for (int id : more) {
+            ids.add(id);
+        }
+
+        final ObjectNode root = MAPPER.createObjectNode();
+        final ArrayNode arguments = root.putArray("arguments");
+        for (int id : ids) {
+            final ObjectNode arg = arguments.addObject();
+            arg.put("id", "arg" + id);
+            arg.put("sourceUrl", "https://example.org/" + name);
+            arg.put("conclusion", "conclusion of argument " + id);
+            final ObjectNode premise = arg.putArray("premises").addObject();
+            premise.put("text", "premise from " + name + tag);
+            premise.put("stance", id % 2 == 0 ? "PRO" : "CON");
+            arg.putObject("context").put("discussionTitle", "debate " + id);
+        }
+
+        final Path file = docs.resolve(name + ".json");
+        MAPPER.writeValue(file.toFile(), root);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(++clock * 1000));
+    }
+
+    /**
+     * Returns the identifiers of the live documents of an index, in index order.
+     *
+     * @param index the directory of the index.
+     * @return the identifiers of the documents.
+     * @throws IOException if the index cannot be read.
+     */
+    private static List<String> ids(final Path index) throws IOException {
+        final List<String> ids = new ArrayList<>();
+        for (Document doc : documents(index)) {
+            ids.add(doc.get(ParsedDocument.FIELDS.ID));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the identifier and premises of the live documents of an index.
+     *
+     * @param index the directory of the index.
+     * @return the identifier and premises of each document, sorted.
+     * @throws IOException if the index cannot be read.
+     */
+    private static SortedSet<String> contents(final Path index) throws IOException {
+        final SortedSet<String> contents = new TreeSet<>();
+        for (Document doc : documents(index)) {
+            assertTrue(contents.add(doc.get(ParsedDocument.FIELDS.ID) + "=" + doc.get(ParsedDocument.FIELDS.PREMISES)),
+                    "Duplicate document.");
+        }
+        return contents;
+    }
+
+    /**
+     * Returns the stored fields of the live documents of an index, in index order.
+     *
+     * @param index the directory of the index.
+     * @return the documents.
+     * @throws IOException if the index cannot be read.
+     */
+    private static List<Document> documents(final Path index) throws IOException {
+        final List<Document> docs = new ArrayList<>();
+        try (Directory dir = FSDirectory.open(index); IndexReader reader = DirectoryReader.open(dir)) {
+            for (LeafReaderContext leaf : reader.leaves()) {
+                final LeafReader r = leaf.reader();
+                final Bits live = r.getLiveDocs();
+                for (int doc = 0; doc < r.maxDoc(); doc++) {
+                    if (live == null || live.get(doc)) {
+                        docs.add(r.document(doc));
+                    }
+                }
+            }
+        }
+        return docs;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link IdDeduplicator}.
+ *
+ * @author Luca Martinelli (luca.martinelli.1@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+class IdDeduplicatorTest {
+
+    /**
+     * Only the first occurrence of an identifier is added, and the duplicates are counted.
+     */
+    @Test
+    void addsOnlyTheFirstOccurrence() {
+
+        final IdDeduplicator ids = new IdDeduplicator(10);
+
+        assertTrue(ids.add("a"));
+        assertTrue(ids.add("b"));
+        assertFalse(ids.add("a"));
+        assertFalse(ids.add("a"));
+        assertTrue(ids.add(""));
+        assertFalse(ids.add(""));
+
+        assertEquals(3, ids.size());
+        assertEquals(3, ids.duplicates().get("a"));
+        assertEquals(2, ids.duplicates().get(""));
+        assertNull(ids.duplicates().get("b"));
+    }
+
+    /**
+     * The set grows beyond the expected number of identifiers without losing any.
+     */
+    @Test
+    void growsBeyondTheExpectedSize() {
+
+        final IdDeduplicator ids = new IdDeduplicator(1);
+
+        for (int i = 0; i < 200_000; i++) {
+            assertTrue(ids.add("S" + i + "-A" + i * 31));
+        }
+        for (int i = 0; i < 200_000; i += 7) {
+            assertFalse(ids.add("S" + i + "-A" + i * 31));
+        }
+
+        assertEquals(200_000, ids.size());
+        assertTrue(ids.bytes() > 0);
+        assertTrue(ids.collisionProbability() < 1e-20);
+    }
+
+    /**
+     * When threads add the same identifiers concurrently, each identifier is added by exactly one of them.
+     */
+    @Test
+    void concurrentAddsAreExclusive() throws Exception {
+
+        final int n = 50_000;
+        final IdDeduplicator ids = new IdDeduplicator(n);
+        final AtomicInteger added = new AtomicInteger();
+
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                tasks.add(pool.submit(() -> {
+                    for (int i = 0; i < n; i++) {
+                        if (ids.add("id" + i)) {
+                            added.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : tasks) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(n, added.get());
+        assertEquals(n, ids.size());
+        assertEquals(n, ids.duplicates().size());
+    }
+
+    /**
+     * Invalid arguments are rejected.
+     */
+    @Test
+    void invalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new IdDeduplicator(-1));
+        assertThrows(NullPointerException.class, () -> new IdDeduplicator(1).add(null));
+    }
+
+}
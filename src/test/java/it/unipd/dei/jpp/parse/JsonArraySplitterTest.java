@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2021 University of Padua, Italy
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package it.unipd.dei.jpp.parse;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests of {@link JsonArraySplitter}.
+ *
+ * @author Marco Alecci (marco.alecci@studenti.unipd.it)
+ * @version 1.00
+ * @since 1.00
+ */
+class JsonArraySplitterTest {
+
+    /**
+     * The parser of the chunks.
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Chunks are contiguous ranges of whole objects which, wrapped between square brackets, are parsed to all the
+     * objects of the array in order, even if strings and nested values contain brackets, braces and escaped quotes.
+     */
+    @Test
+    void chunksHoldWholeObjectsInOrder() throws IOException {
+
+        final StringBuilder json = new StringBuilder("{\"arguments\":[ ");
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ids.add("arg" + i);
+            if (i > 0) {
+                json.append(",\n");
+            }
+            json.append("{\"id\":\"arg").append(i).append("\",")
+                    .append("\"text\":\"} ] { [ \\\" \\\\\",")
+                    .append("\"premises\":[{\"text\":\"x").append(i).append("\",\"n\":{\"a\":[{}, []]}}]}");
+        }
+        json.append("], \"trailing\":[{\"id\":\"not an argument\"}]}");
+
+        final byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+        final JsonArraySplitter splitter = new JsonArraySplitter(new ByteArrayInputStream(bytes), 500);
+
+        final List<String> parsed = new ArrayList<>();
+        long previousEnd = -1;
+        int chunks = 0;
+        JsonArraySplitter.Chunk c;
+        while ((c = splitter.next()) != null) {
+            chunks++;
+            assertTrue(c.getStart() > previousEnd, "Chunks overlap.");
+            assertEquals('{', bytes[(int) c.getStart()]);
+            assertEquals('}', bytes[(int) c.getEnd() - 1]);
+            assertEquals(c.getEnd() - c.getStart(), c.length());
+
+            final String range = new String(Arrays.copyOfRange(bytes, (int) c.getStart(), (int) c.getEnd()),
+                    StandardCharsets.UTF_8);
+            for (JsonNode arg : MAPPER.readTree("[" + range + "]")) {
+                parsed.add(arg.get("id").asText());
+            }
+            previousEnd = c.getEnd();
+        }
+
+        assertTrue(chunks > 1, "The array has not been split.");
+        assertEquals(ids, parsed);
+    }
+
+    /**
+     * All the chunks but the last one are at least as large as the chunk size, and an array smaller than the chunk
+     * size is a single chunk.
+     */
+    @Test
+    void chunksAreAtLeastChunkSize() throws IOException {
+
+        final StringBuilder json = new StringBuilder("{\"arguments\":[");
+        for (int i = 0; i < 50; i++) {
+            json.append(i > 0 ? "," : "").append("{\"id\":\"").append("x".repeat(i)).append("\"}");
+        }
+        json.append("]}");
+        final byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+
+        final List<JsonArraySplitter.Chunk> chunks = split(bytes, 100);
+        for (int i = 0; i < chunks.size() - 1; i++) {
+            assertTrue(chunks.get(i).length() >= 100);
+        }
+
+        final List<JsonArraySplitter.Chunk> whole = split(bytes, Long.MAX_VALUE);
+        assertEquals(1, whole.size());
+        assertEquals(json.indexOf("{", 1), whole.get(0).getStart());
+        assertEquals(json.lastIndexOf("}", json.length() - 2) + 1, whole.get(0).getEnd());
+    }
+
+    /**
+     * An empty array, or a document without arrays, has no chunks.
+     */
+    @Test
+    void emptyArrayHasNoChunks() throws IOException {
+        assertTrue(split("{\"arguments\":[]}".getBytes(StandardCharsets.UTF_8), 1).isEmpty());
+        assertTrue(split("{\"id\":\"a\"}".getBytes(StandardCharsets.UTF_8), 1).isEmpty());
+    }
+
+    /**
+     * Invalid arguments are rejected.
+     */
+    @Test
+    void invalidArguments() {
+        assertThrows(NullPointerException.class, () -> new JsonArraySplitter(null, 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new JsonArraySplitter(new ByteArrayInputStream(new byte[0]), 0));
+    }
+
+    /**
+     * Splits a JSON document.
+     *
+     * @param bytes     the document.
+     * @param chunkSize the minimum size of a chunk.
+     * @return the chunks.
+     * @throws IOException if something goes wrong while splitting.
+     */
+    private static List<JsonArraySplitter.Chunk> split(final byte[] bytes, final long chunkSize) throws IOException {
+        final JsonArraySplitter splitter = new JsonArraySplitter(new ByteArrayInputStream(bytes), chunkSize);
+        final List<JsonArraySplitter.Chunk> chunks = new ArrayList<>();
+        JsonArraySplitter.Chunk c;
+        while ((c = splitter.next()) != null) {
+            chunks.add(c);
+        }
+        return chunks;
+    }
+
+}